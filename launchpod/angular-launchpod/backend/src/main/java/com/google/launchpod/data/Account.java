@@ -0,0 +1,25 @@
+package com.google.launchpod.data;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * Keys of Account entity groups. Every UserFeed is a child of the Account key
+ * of the user who created it, so a user's feeds can be listed with a strongly
+ * consistent ancestor query. No Account entity is ever stored, the key only
+ * groups the feeds.
+ */
+public final class Account {
+
+  public static final String ACCOUNT_KEY = "Account";
+
+  private Account() {
+  }
+
+  /**
+   * Key of the Account of the user with the given email.
+   */
+  public static Key keyFor(String email) {
+    return KeyFactory.createKey(ACCOUNT_KEY, email);
+  }
+}
@@ -0,0 +1,214 @@
+package com.google.launchpod.data;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreService.KeyRangeState;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+
+/**
+ * Moves UserFeed entities stored as root entities into the Account entity group
+ * of their owner, along with their episodes and other child entities. The old
+ * key is left holding only a {@link FeedStore#MOVED_TO} property, so links to
+ * the feed made before the move keep working.
+ *
+ * The children are copied before the feed itself moves and again after, so an
+ * episode added in between is not lost. Once the feed has moved, adding to it
+ * under the old key fails. Moving a feed again after a failure picks up where
+ * the last attempt stopped.
+ */
+public final class AccountMigration {
+
+  public static final String MOVED_FEEDS = "accountMigration.movedFeeds";
+
+  private static final int BATCH_SIZE = 100;
+  // Datastore deletes at most 500 keys per call
+  private static final int DELETE_BATCH_SIZE = 500;
+
+  private AccountMigration() {
+  }
+
+  /**
+   * Move the next batch of root UserFeed entities into their Account entity
+   * groups.
+   *
+   * @param cursor : cursor returned by the previous batch, or null to start
+   * @return cursor to pass to the next batch, or null once every feed is moved
+   * @throws IllegalArgumentException if the cursor is not a valid cursor
+   */
+  public static String moveFeeds(DatastoreService datastore, String cursor, int limit) {
+    // Feeds left behind by a move have no email, so projecting it leaves them out
+    Query query = new Query(LoginStatus.USER_FEED_KEY)
+        .addProjection(new PropertyProjection(LoginStatus.EMAIL_KEY, String.class));
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+    Set<String> emails = new HashSet<>();
+    for (Entity entity : results) {
+      if (entity.getKey().getParent() == null) {
+        String email = (String) entity.getProperty(LoginStatus.EMAIL_KEY);
+        moveFeed(datastore, entity.getKey(), email);
+        emails.add(email);
+      }
+    }
+    for (String email : emails) {
+      UserFeedCache.invalidate(email);
+    }
+    return results.size() < limit ? null : results.getCursor().toWebSafeString();
+  }
+
+  /**
+   * Move one root UserFeed entity and everything under it into the Account
+   * entity group of its owner.
+   *
+   * @return the key the feed is stored under now
+   */
+  public static Key moveFeed(DatastoreService datastore, Key oldKey, String email) {
+    Key newKey;
+    Set<Key> copiedKeys = new HashSet<>();
+    try {
+      newKey = FeedStore.getMovedTo(datastore.get(oldKey));
+    } catch (EntityNotFoundException e) {
+      throw new IllegalArgumentException("There is no feed " + oldKey + " to move.", e);
+    }
+    if (newKey == null) {
+      newKey = newFeedKey(datastore, oldKey, Account.keyFor(email));
+      copiedKeys = copyChildren(datastore, oldKey, newKey, copiedKeys, false);
+      moveRoot(datastore, oldKey, newKey);
+      Metrics.increment(MOVED_FEEDS);
+    }
+
+    // Episodes never change, so only those added since the first copy are copied
+    // again. The FeedMeta and chunks under the new key may already be newer than
+    // the old ones.
+    if (copyChildren(datastore, oldKey, newKey, copiedKeys, true).size() > copiedKeys.size()) {
+      // The copied FeedMeta doesn't count those episodes, so it is made again
+      // from the episodes the next time it is needed
+      datastore.delete(FeedMeta.keyFor(newKey));
+    }
+    deleteChildren(datastore, oldKey);
+    FeedCache.invalidate(oldKey);
+    FeedCache.invalidate(newKey);
+    return newKey;
+  }
+
+  /**
+   * Key for a feed under its Account, keeping its ID when it isn't taken.
+   */
+  private static Key newFeedKey(DatastoreService datastore, Key oldKey, Key accountKey) {
+    if (oldKey.getName() != null) {
+      return KeyFactory.createKey(accountKey, oldKey.getKind(), oldKey.getName());
+    }
+    // Reserve the ID so it is never handed out to a new feed of the account
+    KeyRange range = new KeyRange(accountKey, oldKey.getKind(), oldKey.getId(), oldKey.getId());
+    if (datastore.allocateIdRange(range) == KeyRangeState.EMPTY) {
+      return range.getStart();
+    }
+    return datastore.allocateIds(accountKey, oldKey.getKind(), 1).getStart();
+  }
+
+  /**
+   * Replace the old feed entity with one that points to its new key, and store
+   * the feed under the new key, in one cross group transaction.
+   */
+  private static void moveRoot(DatastoreService datastore, Key oldKey, Key newKey) {
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      Entity feedEntity = new Entity(newKey);
+      feedEntity.setPropertiesFrom(datastore.get(txn, oldKey));
+      Entity movedEntity = new Entity(oldKey);
+      movedEntity.setUnindexedProperty(FeedStore.MOVED_TO, newKey);
+      datastore.put(txn, feedEntity);
+      datastore.put(txn, movedEntity);
+      txn.commit();
+    } catch (EntityNotFoundException e) {
+      throw new IllegalStateException("Feed " + oldKey + " was deleted while it was being moved.", e);
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Copy the child entities of the old feed key to the new one, except
+   * episodes that were copied already.
+   *
+   * @param episodesOnly : whether to copy only Episode entities
+   * @return keys of the episodes copied so far
+   */
+  private static Set<Key> copyChildren(DatastoreService datastore, Key oldKey, Key newKey, Set<Key> copiedKeys,
+      boolean episodesOnly) {
+    Set<Key> episodeKeys = new HashSet<>(copiedKeys);
+    List<Entity> batch = new ArrayList<>();
+    Query query = episodesOnly ? new Query(Item.EPISODE_KEY).setAncestor(oldKey) : new Query().setAncestor(oldKey);
+    for (Entity entity : datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(BATCH_SIZE))) {
+      Key key = entity.getKey();
+      if (key.equals(oldKey) || copiedKeys.contains(key)) {
+        continue;
+      }
+      Entity copy = new Entity(rekey(key, oldKey, newKey));
+      copy.setPropertiesFrom(entity);
+      batch.add(copy);
+      if (Item.EPISODE_KEY.equals(key.getKind())) {
+        episodeKeys.add(key);
+      }
+      // Feed chunks are close to the size limit of a put, so they go one at a time
+      if (batch.size() == BATCH_SIZE || FeedStore.FEED_CHUNK_KEY.equals(key.getKind())) {
+        datastore.put(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      datastore.put(batch);
+    }
+    return episodeKeys;
+  }
+
+  private static void deleteChildren(DatastoreService datastore, Key oldKey) {
+    List<Key> batch = new ArrayList<>();
+    Query query = new Query().setAncestor(oldKey).setKeysOnly();
+    for (Entity entity : datastore.prepare(query).asIterable()) {
+      if (entity.getKey().equals(oldKey)) {
+        continue;
+      }
+      batch.add(entity.getKey());
+      if (batch.size() == DELETE_BATCH_SIZE) {
+        datastore.delete(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      datastore.delete(batch);
+    }
+  }
+
+  /**
+   * The key under the new feed key that matches a key under the old one.
+   */
+  private static Key rekey(Key key, Key oldKey, Key newKey) {
+    if (key.equals(oldKey)) {
+      return newKey;
+    }
+    Key parent = rekey(key.getParent(), oldKey, newKey);
+    return key.getName() != null ? KeyFactory.createKey(parent, key.getKind(), key.getName())
+        : KeyFactory.createKey(parent, key.getKind(), key.getId());
+  }
+}
@@ -11,9 +11,12 @@ import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
 
 @JacksonXmlRootElement(localName = "channel")
-@JsonPropertyOrder({ "title", "link", "language", "description", "author", "owner", "category", "item" })
+@JsonPropertyOrder({ "title", "link", "language", "description", "author", "owner", "category", Channel.ITEM_ELEMENT })
 public class Channel {
 
+  // Name of the element of every item, wherever items are written or read
+  public static final String ITEM_ELEMENT = "items";
+
   @JacksonXmlProperty
   @JsonProperty("title")
   private String title;
@@ -46,8 +49,8 @@ public class Channel {
   private List<ItunesCategory> itunesCategory;
 
   @JacksonXmlElementWrapper(useWrapping = false)
-  @JacksonXmlProperty
-  @JsonProperty("item")
+  @JacksonXmlProperty(localName = ITEM_ELEMENT)
+  @JsonProperty(ITEM_ELEMENT)
   private List<Item> items = new ArrayList<Item>();
 
   /**
@@ -0,0 +1,218 @@
+package com.google.launchpod.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Adds episodes to feeds in transactions. Appends to the same feed that arrive
+ * while a transaction for it is being committed are grouped into a batch, and
+ * the whole batch is written by the next transaction. Under load a feed gets
+ * one commit at a time instead of many transactions retrying against each
+ * other, and when it is idle an append is committed right away.
+ */
+public final class FeedAppender {
+
+  public static final String APPENDS = "feedAppender.appends";
+  public static final String BATCHES = "feedAppender.batches";
+  public static final String MAX_BATCH_SIZE = "feedAppender.maxBatchSize";
+  public static final String CONTENTION_RETRIES = "feedAppender.contentionRetries";
+  public static final String FAILED_BATCHES = "feedAppender.failedBatches";
+  public static final String COMMIT_LATENCY = "feedAppender.commit";
+
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long INITIAL_BACKOFF_MILLIS = 20;
+  // Longer than any commit with retries should take, well within the request deadline
+  private static final long WAIT_SECONDS = 30;
+
+  private static final Map<Key, Batch> PENDING = new HashMap<>();
+  private static final Striped<Lock> COMMIT_LOCKS = Striped.lock(64);
+
+  private FeedAppender() {
+  }
+
+  /**
+   * Add an episode to a feed, returning once it is committed.
+   *
+   * @throws IOException if the feed doesn't exist or the episode could not be
+   *         committed
+   */
+  public static void append(DatastoreService datastore, Key feedKey, Item item) throws IOException {
+    Batch batch;
+    boolean leader = false;
+    synchronized (PENDING) {
+      batch = PENDING.get(feedKey);
+      if (batch == null) {
+        batch = new Batch();
+        PENDING.put(feedKey, batch);
+        leader = true;
+      }
+      batch.items.add(item);
+    }
+
+    if (leader) {
+      commitBatch(datastore, feedKey, batch);
+    }
+    awaitBatch(batch);
+  }
+
+  /**
+   * Add the episode of a text-to-speech job to a feed and mark the job done in
+   * the same cross-group transaction, returning once it is committed. A job
+   * that is already done adds nothing, so a retried task never adds its episode
+   * twice. Jobs aren't batched, they run in the background where a commit of
+   * their own costs nobody a wait.
+   *
+   * @return whether the episode was added, false if the job was already done or
+   *         no longer exists
+   * @throws IOException if the feed doesn't exist or the episode could not be
+   *         committed
+   */
+  public static boolean appendForJob(DatastoreService datastore, Key feedKey, Item item, Key jobKey)
+      throws IOException {
+    return commit(datastore, feedKey, Collections.singletonList(item), jobKey);
+  }
+
+  /**
+   * Commit a batch once the previous batch of the same feed is done. Appends
+   * keep joining the batch until then.
+   */
+  private static void commitBatch(DatastoreService datastore, Key feedKey, Batch batch) {
+    Lock lock = COMMIT_LOCKS.get(feedKey);
+    lock.lock();
+    try {
+      List<Item> items;
+      synchronized (PENDING) {
+        // Appends from now on start the next batch
+        PENDING.remove(feedKey);
+        items = new ArrayList<>(batch.items);
+      }
+      commit(datastore, feedKey, items, null);
+      batch.result.complete(null);
+    } catch (IOException | RuntimeException e) {
+      Metrics.increment(FAILED_BATCHES);
+      batch.result.completeExceptionally(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Commit episodes to a feed, retrying on contention.
+   *
+   * @param jobKey : the job the episodes are added for, which is marked done in
+   *        the same transaction, or null
+   * @return whether the episodes were added
+   */
+  private static boolean commit(DatastoreService datastore, Key feedKey, List<Item> items, Key jobKey)
+      throws IOException {
+    long start = System.currentTimeMillis();
+    long backoffMillis = INITIAL_BACKOFF_MILLIS;
+    for (int attempt = 1;; attempt++) {
+      Transaction txn = jobKey == null ? datastore.beginTransaction()
+          : datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Entity jobEntity = null;
+        if (jobKey != null) {
+          jobEntity = getJob(datastore, txn, jobKey);
+          if (jobEntity == null || TtsJob.fromEntity(jobEntity).isFinished()) {
+            return false;
+          }
+        }
+        Entity feedEntity = datastore.get(txn, feedKey);
+        if (FeedStore.getMovedTo(feedEntity) != null) {
+          throw new IOException("The feed you are adding to has moved. Reload your feeds and try again.");
+        }
+        FeedStore.appendItems(datastore, txn, feedEntity, items);
+        if (jobEntity != null) {
+          TtsJob.setStatus(jobEntity, TtsJob.DONE, items.get(0).getLink(), null);
+          datastore.put(txn, jobEntity);
+        }
+        txn.commit();
+        break;
+      } catch (EntityNotFoundException e) {
+        throw new IOException("The feed you are adding to no longer exists.", e);
+      } catch (ConcurrentModificationException e) {
+        // Another instance wrote to the feed, try again on fresh data
+        Metrics.increment(CONTENTION_RETRIES);
+        if (attempt == MAX_ATTEMPTS) {
+          throw new IOException("The feed is too busy to add episodes to. Try again.", e);
+        }
+        sleep(backoffMillis);
+        backoffMillis *= 2;
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+    FeedCache.invalidate(feedKey);
+
+    Metrics.recordLatency(COMMIT_LATENCY, System.currentTimeMillis() - start);
+    Metrics.increment(BATCHES);
+    Metrics.add(APPENDS, items.size());
+    Metrics.recordMax(MAX_BATCH_SIZE, items.size());
+    return true;
+  }
+
+  private static Entity getJob(DatastoreService datastore, Transaction txn, Key jobKey) {
+    try {
+      return datastore.get(txn, jobKey);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static void awaitBatch(Batch batch) throws IOException {
+    try {
+      batch.result.get(WAIT_SECONDS, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw new IOException(e.getCause().getMessage(), e.getCause());
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new IOException("Timed out adding the episode. Try again.", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while adding the episode.", e);
+    }
+  }
+
+  private static void sleep(long millis) throws IOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while adding the episode.", e);
+    }
+  }
+
+  /**
+   * Appends to one feed that are committed together.
+   */
+  private static final class Batch {
+    // Guarded by PENDING
+    private final List<Item> items = new ArrayList<>();
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+  }
+}
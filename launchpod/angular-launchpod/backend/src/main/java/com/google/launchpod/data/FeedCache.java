@@ -0,0 +1,148 @@
+package com.google.launchpod.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Two tier cache of rendered feed XML: a size bounded LRU map on this instance
+ * in front of Memcache, plus the FeedMeta of each feed in Memcache. Entries are
+ * keyed by the feed key and a version counter kept in Memcache, so bumping the
+ * version after a write invalidates the feed on every instance at once.
+ */
+public final class FeedCache {
+
+  public static final String LOCAL_HITS = "feedCache.localHits";
+  public static final String MEMCACHE_HITS = "feedCache.memcacheHits";
+  public static final String MISSES = "feedCache.misses";
+  public static final String EVICTIONS = "feedCache.evictions";
+
+  private static final String VERSION_PREFIX = "feedVersion:";
+  private static final String FEED_PREFIX = "feed:";
+  private static final String META_SUFFIX = ":meta";
+  static final long MAX_LOCAL_BYTES = 8L * 1024 * 1024;
+  // Memcache values are limited to 1 MB, including the key
+  private static final int MAX_MEMCACHE_BYTES = 1000 * 1000;
+
+  private static final Map<String, byte[]> LOCAL_CACHE = new LinkedHashMap<>(16, 0.75f, true);
+  private static long localBytes = 0;
+
+  private FeedCache() {
+  }
+
+  /**
+   * Cache key for the current version of a feed, or null if Memcache can't tell
+   * the version, in which case nothing should be served from or put in the
+   * cache. Look the key up before reading the feed, so a write that happens in
+   * between only leaves an entry behind under a version nobody asks for again.
+   */
+  public static String currentKey(Key feedKey) {
+    String keyString = KeyFactory.keyToString(feedKey);
+    // Versions start at the current time so a version lost from Memcache never repeats
+    Long version = memcache().increment(VERSION_PREFIX + keyString, 0L, System.currentTimeMillis());
+    if (version == null) {
+      return null;
+    }
+    return FEED_PREFIX + keyString + ":" + version;
+  }
+
+  /**
+   * Get the cached XML stored under a key from {@link #currentKey}, or null if
+   * it is not cached.
+   */
+  public static byte[] get(String cacheKey) {
+    if (cacheKey == null) {
+      Metrics.increment(MISSES);
+      return null;
+    }
+
+    byte[] xml = getLocal(cacheKey);
+    if (xml != null) {
+      Metrics.increment(LOCAL_HITS);
+      return xml;
+    }
+
+    Object cached = memcache().get(cacheKey);
+    if (cached instanceof byte[]) {
+      Metrics.increment(MEMCACHE_HITS);
+      putLocal(cacheKey, (byte[]) cached);
+      return (byte[]) cached;
+    }
+
+    Metrics.increment(MISSES);
+    return null;
+  }
+
+  /**
+   * Cache rendered XML under a key from {@link #currentKey}.
+   */
+  public static void put(String cacheKey, byte[] xml) {
+    if (cacheKey == null) {
+      return;
+    }
+    putLocal(cacheKey, xml);
+    if (xml.length < MAX_MEMCACHE_BYTES) {
+      memcache().put(cacheKey, xml);
+    }
+  }
+
+  /**
+   * Get the cached FeedMeta stored under a key from {@link #currentKey}, or null
+   * if it is not cached. Only Memcache is used for these small entries.
+   */
+  public static FeedMeta getMeta(String cacheKey) {
+    if (cacheKey == null) {
+      return null;
+    }
+    Object cached = memcache().get(cacheKey + META_SUFFIX);
+    return cached instanceof FeedMeta ? (FeedMeta) cached : null;
+  }
+
+  /**
+   * Cache FeedMeta under a key from {@link #currentKey}.
+   */
+  public static void putMeta(String cacheKey, FeedMeta feedMeta) {
+    if (cacheKey != null) {
+      memcache().put(cacheKey + META_SUFFIX, feedMeta);
+    }
+  }
+
+  /**
+   * Invalidate every cached copy of a feed. Called after each write to the feed.
+   */
+  public static void invalidate(Key feedKey) {
+    memcache().increment(VERSION_PREFIX + KeyFactory.keyToString(feedKey), 1L, System.currentTimeMillis());
+  }
+
+  private static synchronized byte[] getLocal(String cacheKey) {
+    return LOCAL_CACHE.get(cacheKey);
+  }
+
+  private static synchronized void putLocal(String cacheKey, byte[] xml) {
+    if (xml.length > MAX_LOCAL_BYTES) {
+      return;
+    }
+    byte[] previous = LOCAL_CACHE.put(cacheKey, xml);
+    if (previous != null) {
+      localBytes -= previous.length;
+    }
+    localBytes += xml.length;
+
+    // Drop the least recently used feeds until the cache fits again
+    Iterator<byte[]> eldest = LOCAL_CACHE.values().iterator();
+    while (localBytes > MAX_LOCAL_BYTES && eldest.hasNext()) {
+      localBytes -= eldest.next().length;
+      eldest.remove();
+      Metrics.increment(EVICTIONS);
+    }
+  }
+
+  private static MemcacheService memcache() {
+    return MemcacheServiceFactory.getMemcacheService();
+  }
+}
@@ -0,0 +1,87 @@
+package com.google.launchpod.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * Encodes feed XML for storage in Datastore. Feeds are stored as a deflate
+ * compressed Blob that starts with a format byte, so the format can change
+ * later without breaking feeds that are already stored. Feeds stored as Text
+ * or String before this are still decoded.
+ */
+public final class FeedCodec {
+
+  // Format byte of a Blob holding raw deflate data of the UTF-8 encoded XML
+  private static final byte DEFLATE_FORMAT = 1;
+
+  private FeedCodec() {
+  }
+
+  /**
+   * Encode feed XML as the value of a Datastore property.
+   */
+  public static Blob encode(String xml) {
+    byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream(bytes.length / 4 + 64);
+      encoded.write(DEFLATE_FORMAT);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        encoded.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return new Blob(encoded.toByteArray());
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Decode the value of a Datastore property back to feed XML.
+   *
+   * @param value : Blob written by {@link #encode}, or a legacy Text or String
+   * @throws IllegalArgumentException if the value is not a known feed format
+   */
+  public static String decode(Object value) {
+    if (value == null) {
+      return null;
+    } else if (value instanceof Text) {
+      return ((Text) value).getValue();
+    } else if (value instanceof String) {
+      return (String) value;
+    } else if (!(value instanceof Blob)) {
+      throw new IllegalArgumentException("Unknown feed property type: " + value.getClass().getName());
+    }
+
+    byte[] bytes = ((Blob) value).getBytes();
+    if (bytes.length == 0 || bytes[0] != DEFLATE_FORMAT) {
+      throw new IllegalArgumentException("Unknown feed storage format.");
+    }
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(bytes, 1, bytes.length - 1);
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream(bytes.length * 6);
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalArgumentException("Stored feed is truncated.");
+        }
+        decoded.write(buffer, 0, length);
+      }
+      return new String(decoded.toByteArray(), StandardCharsets.UTF_8);
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Stored feed is corrupted.", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.google.launchpod.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.common.collect.Lists;
+
+/**
+ * Lists the feeds a user has created, newest first. Feeds are children of their
+ * owner's {@link Account} key, so the listing is a strongly consistent ancestor
+ * query that only reads the user's own feeds. It projects only the properties
+ * shown in the list, so it is answered from the UserFeed composite index in
+ * datastore-indexes.xml, and the stored XML is never transferred.
+ */
+public final class FeedListing {
+
+  public static final String LISTINGS = "feedListing.listings";
+  public static final String BYTES_READ = "feedListing.bytesRead";
+  public static final String MAX_BYTES_READ = "feedListing.maxBytesRead";
+
+  // Every property here must be in the composite index, and a feed missing one
+  // of them is left out of the results
+  private static final String[] SUMMARY_PROPERTIES = { LoginStatus.TITLE_KEY, LoginStatus.NAME_KEY,
+      LoginStatus.DESCRIPTION_KEY, LoginStatus.LANGUAGE_KEY };
+  // Size of the projected timestamp
+  private static final int TIMESTAMP_BYTES = Long.BYTES;
+  private static final String BASE_URL = "https://launchpod-step18-2020.appspot.com/rss-feed?id=";
+  // Unlike SimpleDateFormat, Joda formatters can be shared between request threads
+  private static final DateTimeFormatter POST_TIME_FORMATTER = DateTimeFormat.forPattern("MM/dd/yyyy  HH:mm:ss Z")
+      .withLocale(Locale.getDefault());
+
+  private FeedListing() {
+  }
+
+  /**
+   * Get the UserFeed summaries of every feed created by a user, newest first.
+   */
+  public static ArrayList<UserFeed> listUserFeeds(DatastoreService datastore, String email) {
+    return Lists.newArrayList(iterateUserFeeds(datastore, email));
+  }
+
+  /**
+   * Iterate over the UserFeed summaries of every feed created by a user, newest
+   * first. Feeds are read from Datastore in batches as the iterator advances.
+   */
+  public static UserFeedIterator iterateUserFeeds(DatastoreService datastore, String email) {
+    return new UserFeedIterator(datastore.prepare(summaryQuery(email)).asQueryResultIterator(), email,
+        Integer.MAX_VALUE);
+  }
+
+  /**
+   * Iterate over one page of the UserFeed summaries of a user's feeds, newest
+   * first. Each page costs the same however many feeds the user has, because the
+   * query resumes from the cursor instead of skipping the earlier pages.
+   *
+   * @param cursor : next cursor of the previous page, or null for the first page
+   * @throws IllegalArgumentException if the cursor is not a valid cursor
+   */
+  public static UserFeedIterator iterateUserFeeds(DatastoreService datastore, String email, int limit,
+      String cursor) {
+    // One result past the page tells whether there is a next page
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit + 1).prefetchSize(limit + 1);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    return new UserFeedIterator(datastore.prepare(summaryQuery(email)).asQueryResultIterator(fetchOptions), email,
+        limit);
+  }
+
+  /**
+   * Query for the summaries of a user's feeds, newest first.
+   */
+  private static Query summaryQuery(String email) {
+    // The email is known from the Account key, so it is not projected
+    Query query = new Query(LoginStatus.USER_FEED_KEY, Account.keyFor(email))
+        .addSort(LoginStatus.TIMESTAMP_KEY, SortDirection.DESCENDING)
+        .addProjection(new PropertyProjection(LoginStatus.TIMESTAMP_KEY, Long.class));
+    for (String property : SUMMARY_PROPERTIES) {
+      query.addProjection(new PropertyProjection(property, String.class));
+    }
+    return query;
+  }
+
+  /**
+   * Add the approximate number of bytes read by one listing to the metrics.
+   */
+  static void recordListing(long bytesRead) {
+    Metrics.increment(LISTINGS);
+    Metrics.add(BYTES_READ, bytesRead);
+    Metrics.recordMax(MAX_BYTES_READ, bytesRead);
+  }
+
+  /**
+   * Create the UserFeed summary of a UserFeed entity, either whole or projected.
+   */
+  static UserFeed toUserFeed(Entity entity, String userFeedEmail) {
+    String userFeedTitle = (String) entity.getProperty(LoginStatus.TITLE_KEY);
+    String userFeedName = (String) entity.getProperty(LoginStatus.NAME_KEY);
+    String userFeedDescription = (String) entity.getProperty(LoginStatus.DESCRIPTION_KEY);
+    String userFeedLanguage = (String) entity.getProperty(LoginStatus.LANGUAGE_KEY);
+    long userFeedTimestamp = (long) entity.getProperty(LoginStatus.TIMESTAMP_KEY);
+    String postTime = POST_TIME_FORMATTER.print(userFeedTimestamp);
+
+    // the key string associated with the entity, not the numeric ID.
+    String urlID = KeyFactory.keyToString(entity.getKey());
+    String rssLink = BASE_URL + urlID;
+
+    return new UserFeed(userFeedTitle, userFeedName, rssLink, userFeedDescription, userFeedEmail, postTime, urlID,
+        userFeedLanguage);
+  }
+
+  /**
+   * Approximate size of a projected entity: its key and the projected values.
+   */
+  static long summaryBytes(Entity entity) {
+    long bytes = KeyFactory.keyToString(entity.getKey()).length() + TIMESTAMP_BYTES;
+    for (String property : SUMMARY_PROPERTIES) {
+      Object value = entity.getProperty(property);
+      if (value != null) {
+        bytes += value.toString().getBytes(StandardCharsets.UTF_8).length;
+      }
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,120 @@
+package com.google.launchpod.data;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.hash.Hashing;
+
+/**
+ * Content hash, last modified time and episode count of a feed, stored in a
+ * small FeedMeta child entity so conditional requests can be answered without
+ * reading the feed itself.
+ */
+public final class FeedMeta implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String FEED_META_KEY = "FeedMeta";
+  public static final String CONTENT_HASH_KEY = "contentHash";
+  public static final String LAST_MODIFIED_KEY = "lastModified";
+  public static final String EPISODE_COUNT_KEY = "episodeCount";
+  private static final String FEED_META_NAME = "meta";
+
+  private final String contentHash;
+  private final long lastModified;
+  private final int episodeCount;
+
+  private FeedMeta(String contentHash, long lastModified, int episodeCount) {
+    this.contentHash = contentHash;
+    this.lastModified = lastModified;
+    this.episodeCount = episodeCount;
+  }
+
+  /**
+   * Create FeedMeta for a feed with the given content.
+   *
+   * @param episodeCount : number of Episode entities the feed has
+   */
+  public static FeedMeta forContent(String xml, long lastModified, int episodeCount) {
+    return new FeedMeta(hash(xml), lastModified, episodeCount);
+  }
+
+  /**
+   * Create FeedMeta for this feed with an episode added to it. The new hash
+   * covers the old one, so it changes with every addition without having to
+   * hash the whole feed again.
+   */
+  public FeedMeta append(String itemXml, long lastModified) {
+    return new FeedMeta(hash(this.contentHash + itemXml), lastModified, this.episodeCount + 1);
+  }
+
+  /**
+   * Create FeedMeta object from a FeedMeta entity.
+   *
+   * @return FeedMeta, or null if the entity was written before episodes were
+   *         counted
+   */
+  public static FeedMeta fromEntity(Entity entity) {
+    if (!entity.hasProperty(EPISODE_COUNT_KEY)) {
+      return null;
+    }
+    return new FeedMeta((String) entity.getProperty(CONTENT_HASH_KEY), (long) entity.getProperty(LAST_MODIFIED_KEY),
+        ((Long) entity.getProperty(EPISODE_COUNT_KEY)).intValue());
+  }
+
+  /**
+   * Create the FeedMeta entity of the given feed.
+   */
+  public Entity toEntity(Key feedKey) {
+    Entity entity = new Entity(keyFor(feedKey));
+    entity.setUnindexedProperty(CONTENT_HASH_KEY, this.contentHash);
+    entity.setUnindexedProperty(LAST_MODIFIED_KEY, this.lastModified);
+    entity.setUnindexedProperty(EPISODE_COUNT_KEY, this.episodeCount);
+    return entity;
+  }
+
+  /**
+   * Key of the FeedMeta entity of the given feed.
+   */
+  public static Key keyFor(Key feedKey) {
+    return KeyFactory.createKey(feedKey, FEED_META_KEY, FEED_META_NAME);
+  }
+
+  public String getContentHash() {
+    return this.contentHash;
+  }
+
+  /**
+   * Quoted entity tag for HTTP responses.
+   */
+  public String getETag() {
+    return getETag(FeedPage.all());
+  }
+
+  /**
+   * Quoted entity tag for HTTP responses with one page of the feed. An archive
+   * page never changes, so its tag comes from its index alone and stays the same
+   * as episodes are added.
+   */
+  public String getETag(FeedPage feedPage) {
+    if (feedPage.isArchive()) {
+      return "\"archive" + feedPage.getArchivePage() + "\"";
+    }
+    return "\"" + this.contentHash + feedPage.getVariant() + "\"";
+  }
+
+  public long getLastModified() {
+    return this.lastModified;
+  }
+
+  public int getEpisodeCount() {
+    return this.episodeCount;
+  }
+
+  private static String hash(String value) {
+    return Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString();
+  }
+}
@@ -0,0 +1,26 @@
+package com.google.launchpod.data;
+
+import com.google.appengine.api.datastore.Key;
+
+/**
+ * Thrown when a feed is asked for by a key it was stored under before it moved
+ * into its owner's Account entity group.
+ */
+public final class FeedMovedException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Key newKey;
+
+  public FeedMovedException(Key newKey) {
+    super("The feed has moved to " + newKey + ".");
+    this.newKey = newKey;
+  }
+
+  /**
+   * Key the feed is stored under now.
+   */
+  public Key getNewKey() {
+    return this.newKey;
+  }
+}
@@ -0,0 +1,134 @@
+package com.google.launchpod.data;
+
+/**
+ * The part of a feed served by one request, following RFC 5005 archived feeds.
+ * The current feed document holds the newest episodes and links to the newest
+ * archive page. Archive pages hold {@link #ARCHIVE_PAGE_SIZE} episodes each, in
+ * the order they were published, and link to the page before them. Only full
+ * pages are served, so an archive page never changes once it exists.
+ */
+public final class FeedPage {
+
+  public static final int DEFAULT_LIMIT = 50;
+  public static final int MAX_LIMIT = 500;
+  public static final int ARCHIVE_PAGE_SIZE = 50;
+
+  private static final String ATOM_NAMESPACE = "http://www.w3.org/2005/Atom";
+  private static final String HISTORY_NAMESPACE = "http://purl.org/syndication/history/1.0";
+  private static final int NO_PAGE = -1;
+  private static final FeedPage ALL = new FeedPage(null, NO_PAGE, 0, -1, NO_PAGE);
+
+  private final String feedUrl;
+  private final int archivePage;
+  private final int offset;
+  private final int count;
+  private final int prevArchivePage;
+
+  private FeedPage(String feedUrl, int archivePage, int offset, int count, int prevArchivePage) {
+    this.feedUrl = feedUrl;
+    this.archivePage = archivePage;
+    this.offset = offset;
+    this.count = count;
+    this.prevArchivePage = prevArchivePage;
+  }
+
+  /**
+   * The whole feed, with every episode and no links.
+   */
+  public static FeedPage all() {
+    return ALL;
+  }
+
+  /**
+   * The current feed document. It holds the newest episodes, at least limit of
+   * them, and every episode that is not on a full archive page yet, so the
+   * archive pages and this document always cover the whole feed between them.
+   *
+   * @param feedUrl : URL of the current feed document, which pages link to
+   * @param episodeCount : number of Episode entities of the feed
+   */
+  public static FeedPage current(String feedUrl, int limit, int episodeCount) {
+    int archivedCount = episodeCount / ARCHIVE_PAGE_SIZE * ARCHIVE_PAGE_SIZE;
+    int offset = Math.max(0, Math.min(episodeCount - limit, archivedCount));
+    if (offset == 0) {
+      // Everything fits, so there's nothing to link to
+      return ALL;
+    }
+    return new FeedPage(feedUrl, NO_PAGE, offset, episodeCount - offset, archivedCount / ARCHIVE_PAGE_SIZE - 1);
+  }
+
+  /**
+   * An archive page of the feed.
+   *
+   * @throws IllegalArgumentException if the page doesn't exist or isn't full yet
+   */
+  public static FeedPage archive(String feedUrl, int page, int episodeCount) {
+    if (page < 0 || (long) (page + 1) * ARCHIVE_PAGE_SIZE > episodeCount) {
+      throw new IllegalArgumentException("There is no archive page " + page + ".");
+    }
+    return new FeedPage(feedUrl, page, page * ARCHIVE_PAGE_SIZE, ARCHIVE_PAGE_SIZE, page - 1);
+  }
+
+  /**
+   * Whether this is the whole feed, so every episode is served.
+   */
+  public boolean isWhole() {
+    return this.count < 0;
+  }
+
+  public boolean isArchive() {
+    return this.archivePage != NO_PAGE;
+  }
+
+  /**
+   * Index of this archive page, or -1 if it isn't one.
+   */
+  public int getArchivePage() {
+    return this.archivePage;
+  }
+
+  /**
+   * Index of the first episode on this page, in the order they were published.
+   */
+  public int getOffset() {
+    return this.offset;
+  }
+
+  /**
+   * Number of episodes on this page, or -1 for the whole feed.
+   */
+  public int getCount() {
+    return this.count;
+  }
+
+  /**
+   * Suffix that tells this page apart in cache keys and entity tags, empty for
+   * the whole feed.
+   */
+  public String getVariant() {
+    if (isWhole()) {
+      return "";
+    }
+    return isArchive() ? ":archive" + this.archivePage : ":current" + this.offset;
+  }
+
+  /**
+   * Atom link and archive elements to add to the channel of this page.
+   */
+  public String getLinksXml() {
+    StringBuilder links = new StringBuilder();
+    if (isArchive()) {
+      links.append(link("current", this.feedUrl));
+      links.append("<fh:archive xmlns:fh=\"").append(HISTORY_NAMESPACE).append("\"/>");
+    }
+    if (this.prevArchivePage != NO_PAGE) {
+      links.append(link("prev-archive", this.feedUrl + "&page=" + this.prevArchivePage));
+    }
+    return links.toString();
+  }
+
+  private static String link(String rel, String href) {
+    return "<atom:link xmlns:atom=\"" + ATOM_NAMESPACE + "\" rel=\"" + rel + "\" href=\""
+        + href.replace("&", "&amp;") + "\"/>";
+  }
+}
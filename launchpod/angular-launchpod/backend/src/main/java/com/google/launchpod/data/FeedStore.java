@@ -0,0 +1,722 @@
+package com.google.launchpod.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTimeUtils;
+
+/**
+ * Reads and writes podcast feeds in Datastore. A UserFeed entity keeps the
+ * channel metadata and the XML of the channel, compressed by {@link FeedCodec},
+ * and every episode is stored as an Episode child entity, so adding an episode
+ * is a single small write. The full feed XML is put together from those
+ * entities when the feed is read, and streamed to the client by
+ * {@link FeedWriter}.
+ *
+ * Deployments that set the launchpod.feedStorage system property to "xml" keep
+ * the whole feed, items included, in the single XML string instead. New items
+ * are then spliced into the stored XML right before the closing channel tag.
+ */
+public final class FeedStore {
+
+  public static final String XML_STRING = "xmlString";
+  public static final String XML_CHUNKS = "xmlChunks";
+  public static final String FEED_CHUNK_KEY = "FeedChunk";
+  // Key a feed moved to, left on the key it was stored under before
+  public static final String MOVED_TO = "movedTo";
+  private static final String CHUNK_DATA = "data";
+  // Entities are limited to 1 MiB, so leave room for the other feed properties
+  private static final int MAX_INLINE_XML_BYTES = 900 * 1000;
+  // Chunks are as big as an entity allows, so even a huge feed is only a few
+  // keys and its chunks come back from one batch get
+  private static final int CHUNK_BYTES = 1000 * 1000;
+  private static final String FEED_STORAGE_PROPERTY = "launchpod.feedStorage";
+  private static final String XML_STORAGE = "xml";
+  private static final String CHANNEL_END_TAG = "</channel>";
+  private static final String RSS_END_TAG = "</rss>";
+  private static final String GZIP_SUFFIX = ":gzip";
+  // Name prefix of the Episode entities of items moved out of the stored XML
+  private static final String XML_ITEM_PREFIX = "xml-";
+  // Episodes are read from Datastore in batches of this size while a feed is written
+  private static final int EPISODE_BATCH_SIZE = 100;
+  // Datastore puts at most 500 entities per call
+  private static final int PUT_BATCH_SIZE = 500;
+  private static final XmlMapper XML_MAPPER = new XmlMapper();
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+  static {
+    XML_MAPPER.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    // The stored XML is only checked for well-formedness, never resolved
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  private FeedStore() {
+  }
+
+  /**
+   * Whether feeds are kept as a single XML string, items included, instead of
+   * having an Episode entity per item.
+   */
+  public static boolean keepsItemsInXml() {
+    return XML_STORAGE.equals(System.getProperty(FEED_STORAGE_PROPERTY));
+  }
+
+  /**
+   * Render the XML to store for the channel of the given feed. Items of the
+   * channel are not part of it, they are kept as Episode entities.
+   */
+  private static String channelXml(RSS rssFeed) throws JsonProcessingException {
+    if (keepsItemsInXml()) {
+      return RSS.toXmlString(rssFeed);
+    }
+    List<Item> items = rssFeed.getChannel().getItems();
+    List<Item> savedItems = new ArrayList<>(items);
+    items.clear();
+    try {
+      return RSS.toXmlString(rssFeed);
+    } finally {
+      items.addAll(savedItems);
+    }
+  }
+
+  /**
+   * Allocate the key of a new UserFeed entity under an Account. Feeds are
+   * created with an allocated key, so FeedChunk entities can be put before the
+   * feed entity that refers to them.
+   */
+  public static Key allocateFeedKey(DatastoreService datastore, Key accountKey) {
+    return datastore.allocateIds(accountKey, LoginStatus.USER_FEED_KEY, 1).getStart();
+  }
+
+  /**
+   * Put a new UserFeed entity with the given feed in Datastore, along with an
+   * Episode entity for every item the feed already has.
+   */
+  public static void createFeed(DatastoreService datastore, Entity feedEntity, RSS rssFeed)
+      throws JsonProcessingException {
+    String xmlString = channelXml(rssFeed);
+    putWithXml(datastore, null, feedEntity, xmlString, Collections.emptyList());
+
+    long timestamp = DateTimeUtils.currentTimeMillis();
+    FeedMeta feedMeta = FeedMeta.forContent(xmlString, timestamp, 0);
+    List<Entity> entities = new ArrayList<>();
+    List<Item> items = rssFeed.getChannel().getItems();
+    if (items != null && !keepsItemsInXml()) {
+      // Keep the original order of the items by giving each one a later timestamp
+      for (Item item : items) {
+        entities.add(item.toEntity(feedEntity.getKey(), timestamp++));
+        feedMeta = feedMeta.append(FeedWriter.toXml(item), feedMeta.getLastModified());
+      }
+    }
+    entities.add(feedMeta.toEntity(feedEntity.getKey()));
+    // A put takes at most 500 entities, the FeedMeta is put last with the final batch
+    for (List<Entity> batch : Lists.partition(entities, PUT_BATCH_SIZE)) {
+      datastore.put(batch);
+    }
+  }
+
+  /**
+   * Add an episode to the given feed. Appends to the same feed from concurrent
+   * requests are committed together in one transaction, see
+   * {@link FeedAppender}.
+   */
+  public static void appendItem(DatastoreService datastore, Entity feedEntity, Item item) throws IOException {
+    FeedAppender.append(datastore, feedEntity.getKey(), item);
+  }
+
+  /**
+   * Add the episode of a text-to-speech job to the given feed, at most once,
+   * and mark the job done, see {@link FeedAppender#appendForJob}.
+   *
+   * @return whether the episode was added, false if the job was already done
+   */
+  public static boolean appendItemForJob(DatastoreService datastore, Entity feedEntity, Item item, Key jobKey)
+      throws IOException {
+    return FeedAppender.appendForJob(datastore, feedEntity.getKey(), item, jobKey);
+  }
+
+  /**
+   * Add episodes to a feed within a transaction. Only the new Episode entities
+   * and the small FeedMeta entity are written, the UserFeed entity is left
+   * untouched, unless items are kept in the XML.
+   *
+   * @param feedEntity : the feed, read within the same transaction
+   */
+  static void appendItems(DatastoreService datastore, Transaction txn, Entity feedEntity, List<Item> items)
+      throws IOException {
+    Key feedKey = feedEntity.getKey();
+    long timestamp = DateTimeUtils.currentTimeMillis();
+
+    if (!keepsItemsInXml()) {
+      FeedMeta feedMeta = getStoredFeedMeta(datastore, txn, feedEntity);
+      List<Entity> entities = new ArrayList<>();
+      // Keep the order of the batch by giving each item a later timestamp
+      for (int i = 0; i < items.size(); i++) {
+        Item item = items.get(i);
+        entities.add(item.toEntity(feedKey, timestamp + i));
+        feedMeta = feedMeta.append(FeedWriter.toXml(item), timestamp);
+      }
+      entities.add(feedMeta.toEntity(feedKey));
+      datastore.put(txn, entities);
+      return;
+    }
+
+    String xmlString = getXmlString(datastore, feedEntity);
+    for (Item item : items) {
+      String modifiedXmlString = spliceItem(xmlString, item);
+      if (modifiedXmlString == null) {
+        // The stored XML can't be spliced safely, so rebuild it from the parsed feed
+        RSS rssFeed = XML_MAPPER.readValue(xmlString, RSS.class);
+        rssFeed.getChannel().getItems().add(item);
+        modifiedXmlString = RSS.toXmlString(rssFeed);
+      }
+      xmlString = modifiedXmlString;
+    }
+    putWithXml(datastore, txn, feedEntity, xmlString,
+        Arrays.asList(FeedMeta.forContent(xmlString, timestamp, 0).toEntity(feedKey)));
+  }
+
+  /**
+   * Put a UserFeed entity with the given XML stored on it. XML too big to fit on
+   * the entity is split across FeedChunk child entities instead, which are put
+   * before the feed entity that refers to them. Chunks of the XML stored before
+   * that are no longer needed are deleted.
+   *
+   * @param feedEntity : the feed as stored, which needs a complete key if the
+   *        XML is too big for it, see {@link #allocateFeedKey}
+   * @param txn : transaction to put the entities in, or null
+   * @param otherEntities : entities to put together with the feed entity
+   * @throws IllegalArgumentException if the XML needs chunks and the feed has no
+   *         key yet
+   */
+  private static void putWithXml(DatastoreService datastore, Transaction txn, Entity feedEntity, String xmlString,
+      List<Entity> otherEntities) {
+    byte[] encoded = FeedCodec.encode(xmlString).getBytes();
+    Object storedChunkCount = feedEntity.getProperty(XML_CHUNKS);
+    List<Entity> entities = new ArrayList<>(otherEntities);
+    entities.add(feedEntity);
+    if (encoded.length <= MAX_INLINE_XML_BYTES) {
+      feedEntity.setProperty(XML_STRING, new Blob(encoded));
+      feedEntity.removeProperty(XML_CHUNKS);
+      datastore.put(txn, entities);
+      deleteChunks(datastore, txn, feedEntity.getKey(), 0, storedChunkCount);
+      return;
+    }
+
+    if (!feedEntity.getKey().isComplete()) {
+      throw new IllegalArgumentException("A feed too big for one entity needs a key from allocateFeedKey.");
+    }
+    List<Entity> chunks = new ArrayList<>();
+    for (int start = 0; start < encoded.length; start += CHUNK_BYTES) {
+      Entity chunk = new Entity(chunkKey(feedEntity.getKey(), chunks.size()));
+      chunk.setProperty(CHUNK_DATA, new Blob(Arrays.copyOfRange(encoded, start,
+          Math.min(encoded.length, start + CHUNK_BYTES))));
+      chunks.add(chunk);
+    }
+    datastore.put(txn, chunks);
+    feedEntity.removeProperty(XML_STRING);
+    feedEntity.setUnindexedProperty(XML_CHUNKS, (long) chunks.size());
+    datastore.put(txn, entities);
+    deleteChunks(datastore, txn, feedEntity.getKey(), chunks.size(), storedChunkCount);
+  }
+
+  /**
+   * Delete the FeedChunk entities of a feed from an index up to the number of
+   * chunks it had stored.
+   *
+   * @param storedChunkCount : XML_CHUNKS property the feed was read with, or
+   *        null if its XML was stored inline
+   */
+  private static void deleteChunks(DatastoreService datastore, Transaction txn, Key feedKey, int from,
+      Object storedChunkCount) {
+    if (storedChunkCount == null) {
+      return;
+    }
+    List<Key> staleKeys = new ArrayList<>();
+    for (int i = from; i < (long) storedChunkCount; i++) {
+      staleKeys.add(chunkKey(feedKey, i));
+    }
+    if (!staleKeys.isEmpty()) {
+      datastore.delete(txn, staleKeys);
+    }
+  }
+
+  private static Key chunkKey(Key feedKey, int index) {
+    // Numeric ids start at 1
+    return KeyFactory.createKey(feedKey, FEED_CHUNK_KEY, index + 1);
+  }
+
+  /**
+   * Insert an item right before the closing channel tag of a feed, rendered the
+   * way the RSS model reads it back.
+   *
+   * @return the modified XML, or null if the stored XML is not a well-formed
+   *         feed that ends with its channel
+   */
+  static String spliceItem(String xmlString, Item item) throws JsonProcessingException {
+    String itemXml = FeedWriter.toXml(item);
+    int channelEnd = findChannelEnd(xmlString);
+    if (channelEnd < 0) {
+      return null;
+    }
+    return new StringBuilder(xmlString.length() + itemXml.length())
+        .append(xmlString, 0, channelEnd)
+        .append(itemXml)
+        .append(xmlString, channelEnd, xmlString.length())
+        .toString();
+  }
+
+  /**
+   * Find where items can be inserted into stored feed XML.
+   *
+   * @return index of the closing channel tag, or -1 if the XML is not a
+   *         well-formed feed that ends with its channel
+   */
+  private static int findChannelEnd(String xmlString) {
+    if (xmlString == null || !isWellFormed(xmlString)) {
+      return -1;
+    }
+    int channelEnd = xmlString.lastIndexOf(CHANNEL_END_TAG);
+    if (channelEnd < 0
+        || !xmlString.substring(channelEnd + CHANNEL_END_TAG.length()).trim().equals(RSS_END_TAG)) {
+      return -1;
+    }
+    return channelEnd;
+  }
+
+  /**
+   * Scan the XML with a streaming parser, without building any objects.
+   */
+  private static boolean isWellFormed(String xmlString) {
+    XMLStreamReader reader = null;
+    try {
+      reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xmlString));
+      while (reader.hasNext()) {
+        reader.next();
+      }
+      return true;
+    } catch (XMLStreamException e) {
+      return false;
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // Nothing left to release
+        }
+      }
+    }
+  }
+
+  /**
+   * Load the full feed of a UserFeed entity, with all of its episodes.
+   */
+  public static RSS loadRss(DatastoreService datastore, Entity feedEntity) throws IOException {
+    RSS rssFeed = XML_MAPPER.readValue(getXmlString(datastore, feedEntity), RSS.class);
+    List<Item> items = rssFeed.getChannel().getItems();
+    for (Entity episodeEntity : queryEpisodes(datastore, feedEntity.getKey())) {
+      items.add(Item.fromEntity(episodeEntity));
+    }
+    return rssFeed;
+  }
+
+  /**
+   * Get the content hash and last modified time of the feed with the given key,
+   * without reading the feed itself.
+   *
+   * @param cacheKey : key from {@link FeedCache#currentKey} for the feed
+   */
+  public static FeedMeta getFeedMeta(DatastoreService datastore, Key feedKey, String cacheKey)
+      throws EntityNotFoundException, FeedMovedException, IOException {
+    FeedMeta feedMeta = FeedCache.getMeta(cacheKey);
+    if (feedMeta != null) {
+      return feedMeta;
+    }
+    try {
+      feedMeta = FeedMeta.fromEntity(datastore.get(FeedMeta.keyFor(feedKey)));
+    } catch (EntityNotFoundException e) {
+      feedMeta = null;
+    }
+    if (feedMeta == null) {
+      // Feeds written before FeedMeta existed get one the first time it is needed,
+      // in a transaction since their items may be moved out of the XML
+      Transaction txn = datastore.beginTransaction();
+      try {
+        Entity feedEntity = datastore.get(txn, feedKey);
+        Key movedTo = getMovedTo(feedEntity);
+        if (movedTo != null) {
+          throw new FeedMovedException(movedTo);
+        }
+        feedMeta = getStoredFeedMeta(datastore, txn, feedEntity);
+        txn.commit();
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+    FeedCache.putMeta(cacheKey, feedMeta);
+    return feedMeta;
+  }
+
+  /**
+   * Write the XML of a page of the feed with the given key to a stream, from the
+   * cache when possible. Otherwise the page is streamed from Datastore, and
+   * cached unless it is too big to keep a copy of.
+   *
+   * @param cacheKey : key from {@link FeedCache#currentKey} for the feed
+   */
+  public static void writeFeedXml(DatastoreService datastore, Key feedKey, String cacheKey, FeedPage feedPage,
+      OutputStream out) throws EntityNotFoundException, IOException {
+    String pageCacheKey = cacheKey == null ? null : cacheKey + feedPage.getVariant();
+    byte[] cachedXml = FeedCache.get(pageCacheKey);
+    if (cachedXml != null) {
+      out.write(cachedXml);
+      return;
+    }
+    Entity feedEntity = datastore.get(feedKey);
+    CopyingOutputStream copyingOut = new CopyingOutputStream(out, FeedCache.MAX_LOCAL_BYTES);
+    renderFeed(datastore, feedEntity, feedPage, copyingOut);
+    byte[] xml = copyingOut.getCopy();
+    if (xml != null) {
+      FeedCache.put(pageCacheKey, xml);
+    }
+  }
+
+  /**
+   * Get the gzip compressed XML of a page of the feed with the given key. It is
+   * only compressed once for every version of the feed, then served from the
+   * cache.
+   *
+   * @param cacheKey : key from {@link FeedCache#currentKey} for the feed
+   */
+  public static byte[] getFeedGzip(DatastoreService datastore, Key feedKey, String cacheKey, FeedPage feedPage)
+      throws EntityNotFoundException, IOException {
+    String gzipCacheKey = cacheKey == null ? null : cacheKey + feedPage.getVariant() + GZIP_SUFFIX;
+    byte[] cachedGzip = FeedCache.get(gzipCacheKey);
+    if (cachedGzip != null) {
+      return cachedGzip;
+    }
+    ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzipStream = new GZIPOutputStream(gzipBytes, FeedWriter.FLUSH_BYTES)) {
+      writeFeedXml(datastore, feedKey, cacheKey, feedPage, gzipStream);
+    }
+    byte[] gzip = gzipBytes.toByteArray();
+    FeedCache.put(gzipCacheKey, gzip);
+    return gzip;
+  }
+
+  /**
+   * Render the XML of the feed stored in a UserFeed entity.
+   */
+  public static String renderXml(DatastoreService datastore, Entity feedEntity) throws IOException {
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    renderFeed(datastore, feedEntity, FeedPage.all(), xml);
+    return new String(xml.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write the XML of a page of the feed stored in a UserFeed entity, reading its
+   * episodes in batches while the stored channel XML is written around them.
+   */
+  private static void renderFeed(DatastoreService datastore, Entity feedEntity, FeedPage feedPage, OutputStream out)
+      throws IOException {
+    String xmlString = getXmlString(datastore, feedEntity);
+    Iterator<Entity> episodeEntities = queryEpisodes(datastore, feedEntity.getKey(), feedPage).iterator();
+    if (!episodeEntities.hasNext() && feedPage.isWhole()) {
+      // Nothing to add to the channel, so the stored XML is already the feed
+      out.write(xmlString.getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    Iterator<Item> items = Iterators.transform(episodeEntities, Item::fromEntity);
+
+    int channelEnd = findChannelEnd(xmlString);
+    if (channelEnd < 0) {
+      // The stored XML can't be split, so build the whole feed instead
+      RSS rssFeed = XML_MAPPER.readValue(xmlString, RSS.class);
+      Iterators.addAll(rssFeed.getChannel().getItems(), items);
+      out.write(RSS.toXmlString(rssFeed).getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    new FeedWriter(out).write(xmlString, channelEnd, feedPage.getLinksXml(), items);
+  }
+
+  /**
+   * Get the UserFeed entity with the given key. A feed that moved into its
+   * owner's Account entity group is found under its new key, so links made
+   * before it moved keep working.
+   */
+  public static Entity getFeed(DatastoreService datastore, Key feedKey) throws EntityNotFoundException {
+    Entity feedEntity = datastore.get(feedKey);
+    Key movedTo = getMovedTo(feedEntity);
+    return movedTo == null ? feedEntity : datastore.get(movedTo);
+  }
+
+  /**
+   * Key a feed moved to, if the entity is what it left behind, or null.
+   */
+  public static Key getMovedTo(Entity feedEntity) {
+    return (Key) feedEntity.getProperty(MOVED_TO);
+  }
+
+  /**
+   * Delete one of the user's UserFeed entities along with its episodes and other
+   * child entities. A feed that moved into its owner's Account entity group is
+   * deleted under its new key, along with what it left behind under the old
+   * one. The key usually comes from a request, so nothing is deleted unless it
+   * is the key of a feed the user owns.
+   *
+   * @return the key the feed was stored under
+   * @throws EntityNotFoundException if the key isn't the key of one of the
+   *         user's feeds
+   */
+  public static Key deleteFeed(DatastoreService datastore, Key feedKey, String email)
+      throws EntityNotFoundException {
+    if (!LoginStatus.USER_FEED_KEY.equals(feedKey.getKind())) {
+      throw new EntityNotFoundException(feedKey);
+    }
+    Entity feedEntity = null;
+    try {
+      feedEntity = datastore.get(feedKey);
+    } catch (EntityNotFoundException e) {
+      // Already gone, but its children may not be
+    }
+    Key movedTo = feedEntity == null ? null : getMovedTo(feedEntity);
+    if (movedTo != null) {
+      // What a feed leaves behind has no owner, the feed it moved to does
+      if (!isOwnFeed(movedTo, null, email)) {
+        throw new EntityNotFoundException(feedKey);
+      }
+      deleteEntityGroup(datastore, feedKey);
+      deleteEntityGroup(datastore, movedTo);
+      return movedTo;
+    }
+    if (!isOwnFeed(feedKey, feedEntity, email)) {
+      throw new EntityNotFoundException(feedKey);
+    }
+    deleteEntityGroup(datastore, feedKey);
+    return feedKey;
+  }
+
+  /**
+   * Whether a key is the key of one of the user's feeds: a feed in the user's
+   * Account entity group, or a root feed stored with the user's email.
+   *
+   * @param feedEntity : the feed stored under the key, or null if there is none
+   */
+  private static boolean isOwnFeed(Key feedKey, Entity feedEntity, String email) {
+    if (!LoginStatus.USER_FEED_KEY.equals(feedKey.getKind())) {
+      return false;
+    }
+    if (feedKey.getParent() != null) {
+      return Account.keyFor(email).equals(feedKey.getParent());
+    }
+    return feedEntity != null && email.equals(feedEntity.getProperty(LoginStatus.EMAIL_KEY));
+  }
+
+  private static void deleteEntityGroup(DatastoreService datastore, Key feedKey) {
+    List<Key> keys = new ArrayList<>();
+    // A kindless ancestor query returns the feed itself and everything under it
+    Query query = new Query().setAncestor(feedKey).setKeysOnly();
+    for (Entity entity : datastore.prepare(query).asIterable()) {
+      keys.add(entity.getKey());
+    }
+    datastore.delete(keys);
+    FeedCache.invalidate(feedKey);
+  }
+
+  /**
+   * Get the stored channel XML of a UserFeed entity.
+   */
+  public static String getXmlString(Entity feedEntity) {
+    return getXmlString(DatastoreServiceFactory.getDatastoreService(), feedEntity);
+  }
+
+  /**
+   * Get the stored channel XML of a UserFeed entity. XML that is split into
+   * chunks is read with a single batch get of all of them.
+   */
+  public static String getXmlString(DatastoreService datastore, Entity feedEntity) {
+    Object chunkCount = feedEntity.getProperty(XML_CHUNKS);
+    if (chunkCount == null) {
+      return FeedCodec.decode(feedEntity.getProperty(XML_STRING));
+    }
+
+    List<Key> chunkKeys = new ArrayList<>();
+    for (int i = 0; i < (long) chunkCount; i++) {
+      chunkKeys.add(chunkKey(feedEntity.getKey(), i));
+    }
+    Map<Key, Entity> chunks = datastore.get(chunkKeys);
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream(chunkKeys.size() * CHUNK_BYTES);
+    for (Key chunkKey : chunkKeys) {
+      Entity chunk = chunks.get(chunkKey);
+      if (chunk == null) {
+        throw new IllegalStateException("Feed chunk " + chunkKey + " is missing.");
+      }
+      byte[] bytes = ((Blob) chunk.getProperty(CHUNK_DATA)).getBytes();
+      encoded.write(bytes, 0, bytes.length);
+    }
+    return FeedCodec.decode(new Blob(encoded.toByteArray()));
+  }
+
+  /**
+   * Get the FeedMeta entity of a feed, creating it from the rendered feed if the
+   * feed doesn't have one yet. Items of a feed written before episodes were
+   * stored separately are moved out of its XML at the same time, so they are
+   * paged like any other episode instead of being repeated on every page.
+   */
+  private static FeedMeta getStoredFeedMeta(DatastoreService datastore, Transaction txn, Entity feedEntity)
+      throws IOException {
+    Key feedKey = feedEntity.getKey();
+    FeedMeta feedMeta;
+    try {
+      feedMeta = FeedMeta.fromEntity(datastore.get(txn, FeedMeta.keyFor(feedKey)));
+    } catch (EntityNotFoundException e) {
+      feedMeta = null;
+    }
+    if (feedMeta == null) {
+      // The hash covers the whole feed as it was rendered before any items moved
+      String xml = renderXml(datastore, feedEntity);
+      Query query = new Query(Item.EPISODE_KEY).setAncestor(feedKey).setKeysOnly();
+      int episodeCount = datastore.prepare(query).countEntities(FetchOptions.Builder.withDefaults())
+          + moveXmlItems(datastore, txn, feedEntity);
+      feedMeta = FeedMeta.forContent(xml, DateTimeUtils.currentTimeMillis(), episodeCount);
+      datastore.put(txn, feedMeta.toEntity(feedKey));
+    }
+    return feedMeta;
+  }
+
+  /**
+   * Move the items kept in the stored XML of a feed into Episode entities, which
+   * come before every episode added since. Each item gets a key made from its
+   * place in the XML, so moving them again after a failure doesn't add them
+   * twice.
+   *
+   * @return the number of items moved
+   */
+  private static int moveXmlItems(DatastoreService datastore, Transaction txn, Entity feedEntity) throws IOException {
+    if (keepsItemsInXml()) {
+      return 0;
+    }
+    RSS rssFeed = XML_MAPPER.readValue(getXmlString(datastore, feedEntity), RSS.class);
+    List<Item> items = rssFeed.getChannel().getItems();
+    if (items.isEmpty()) {
+      return 0;
+    }
+    List<Entity> episodeEntities = new ArrayList<>();
+    for (int i = 0; i < items.size(); i++) {
+      Entity episodeEntity = new Entity(KeyFactory.createKey(feedEntity.getKey(), Item.EPISODE_KEY, XML_ITEM_PREFIX + i));
+      // Timestamps from the item's place sort before any real time
+      episodeEntity.setPropertiesFrom(items.get(i).toEntity(feedEntity.getKey(), i));
+      episodeEntities.add(episodeEntity);
+    }
+    for (List<Entity> batch : Lists.partition(episodeEntities, PUT_BATCH_SIZE)) {
+      datastore.put(txn, batch);
+    }
+    int moved = items.size();
+    items.clear();
+    putWithXml(datastore, txn, feedEntity, RSS.toXmlString(rssFeed), Collections.emptyList());
+    return moved;
+  }
+
+  private static Iterable<Entity> queryEpisodes(DatastoreService datastore, Key feedKey) {
+    return queryEpisodes(datastore, feedKey, FeedPage.all());
+  }
+
+  /**
+   * Query the episodes on a page of a feed, in the order they were added.
+   */
+  private static Iterable<Entity> queryEpisodes(DatastoreService datastore, Key feedKey, FeedPage feedPage) {
+    Query query = new Query(Item.EPISODE_KEY).setAncestor(feedKey);
+    FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(EPISODE_BATCH_SIZE);
+    if (feedPage.isWhole()) {
+      query.addSort(Item.TIMESTAMP_KEY, SortDirection.ASCENDING);
+      return datastore.prepare(query).asIterable(fetchOptions);
+    } else if (feedPage.isArchive()) {
+      query.addSort(Item.TIMESTAMP_KEY, SortDirection.ASCENDING);
+      return datastore.prepare(query).asIterable(fetchOptions.offset(feedPage.getOffset()).limit(feedPage.getCount()));
+    }
+    // The current page holds the newest episodes, so read them newest first
+    // instead of skipping over all the older ones
+    query.addSort(Item.TIMESTAMP_KEY, SortDirection.DESCENDING);
+    return Lists.reverse(datastore.prepare(query).asList(fetchOptions.limit(feedPage.getCount())));
+  }
+
+  /**
+   * Passes everything through to another stream, keeping a copy of it until the
+   * copy would grow past a limit.
+   */
+  private static final class CopyingOutputStream extends FilterOutputStream {
+
+    private final long maxCopyBytes;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    CopyingOutputStream(OutputStream out, long maxCopyBytes) {
+      super(out);
+      this.maxCopyBytes = maxCopyBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      copy(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+      copy(bytes, offset, length);
+    }
+
+    /**
+     * Everything written so far, or null if it was too big to copy.
+     */
+    byte[] getCopy() {
+      return copy == null ? null : copy.toByteArray();
+    }
+
+    private void copy(byte[] bytes, int offset, int length) {
+      if (copy == null) {
+        return;
+      }
+      if (copy.size() + length > maxCopyBytes) {
+        copy = null;
+        return;
+      }
+      copy.write(bytes, offset, length);
+    }
+  }
+}
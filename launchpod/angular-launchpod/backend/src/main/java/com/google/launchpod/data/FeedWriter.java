@@ -0,0 +1,96 @@
+package com.google.launchpod.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+/**
+ * Writes feed XML to a stream as UTF-8 bytes, one item at a time, so the whole
+ * feed never has to be held in memory. The stream is flushed whenever
+ * {@link #FLUSH_BYTES} bytes have been written since the last flush, so the
+ * start of a long feed reaches the client while the rest is still being read.
+ */
+final class FeedWriter {
+
+  static final int FLUSH_BYTES = 32 * 1024;
+  // Items are written with the element name the Channel model reads back
+  private static final ObjectWriter ITEM_WRITER = new XmlMapper().writerFor(Item.class)
+      .withRootName(Channel.ITEM_ELEMENT)
+      .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+      .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  private final OutputStream out;
+  private final OutputStream itemOut = new ItemOutputStream();
+  private long unflushedBytes = 0;
+
+  FeedWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Render one item as it appears in a feed.
+   */
+  static String toXml(Item item) throws JsonProcessingException {
+    return ITEM_WRITER.writeValueAsString(item);
+  }
+
+  /**
+   * Write a feed made of stored channel XML with the given elements and items
+   * inserted before its closing channel tag.
+   *
+   * @param channelEnd : index of the closing channel tag in channelXml
+   * @param elementsXml : XML of channel elements to write before the items
+   */
+  void write(String channelXml, int channelEnd, String elementsXml, Iterator<Item> items) throws IOException {
+    writeBytes(channelXml.substring(0, channelEnd).getBytes(StandardCharsets.UTF_8));
+    writeBytes(elementsXml.getBytes(StandardCharsets.UTF_8));
+    while (items.hasNext()) {
+      ITEM_WRITER.writeValue(itemOut, items.next());
+    }
+    writeBytes(channelXml.substring(channelEnd).getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    out.write(bytes);
+    countBytes(bytes.length);
+  }
+
+  private void countBytes(int length) throws IOException {
+    unflushedBytes += length;
+    if (unflushedBytes >= FLUSH_BYTES) {
+      out.flush();
+      unflushedBytes = 0;
+    }
+  }
+
+  /**
+   * Stream the items are serialized to. Jackson flushes its target after every
+   * value, so flushes are ignored here and left to the flush policy above.
+   */
+  private final class ItemOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      countBytes(1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+      countBytes(length);
+    }
+
+    @Override
+    public void flush() {
+    }
+  }
+}
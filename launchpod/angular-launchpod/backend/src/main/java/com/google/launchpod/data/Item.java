@@ -1,15 +1,16 @@
 package com.google.launchpod.data;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.text.SimpleDateFormat;
-
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
 
 import org.joda.time.DateTimeUtils;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 
 @JacksonXmlRootElement(localName = "item")
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -45,7 +46,18 @@ public class Item {
   @JsonInclude(JsonInclude.Include.NON_EMPTY)
   private String pubDate;
 
-  private static final SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss:SSS z");
+  // Unlike SimpleDateFormat, Joda formatters can be shared between request threads
+  private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("dd/MM/yyyy HH:mm:ss:SSS z");
+
+  // Kind and property names of the Episode child entity an item is stored as
+  public static final String EPISODE_KEY = "Episode";
+  public static final String TITLE_KEY = "title";
+  public static final String LINK_KEY = "link";
+  public static final String DESCRIPTION_KEY = "description";
+  public static final String LANGUAGE_KEY = "language";
+  public static final String EMAIL_KEY = "email";
+  public static final String PUB_DATE_KEY = "pubDate";
+  public static final String TIMESTAMP_KEY = "timestamp";
 
   /**
    * constructor generated for serialization/deserialization. Ensures that a
@@ -60,7 +72,52 @@ public class Item {
     this.language = language;
     this.email = email;
     this.link = mp3Link;
-    this.pubDate = DATE_FORMATTER.format(DateTimeUtils.currentTimeMillis());
+    this.pubDate = DATE_FORMATTER.print(DateTimeUtils.currentTimeMillis());
+  }
+
+  private Item(String title, String description, String language, String email, String link, String pubDate) {
+    this.title = title;
+    this.description = description;
+    this.language = language;
+    this.email = email;
+    this.link = link;
+    this.pubDate = pubDate;
+  }
+
+  /**
+   * Create Item object from an Episode entity.
+   *
+   * @param entity : Episode entity that is being used to create the item
+   * @return Item object
+   */
+  public static Item fromEntity(Entity entity) {
+    Object description = entity.getProperty(DESCRIPTION_KEY);
+    if (description instanceof Text) {
+      description = ((Text) description).getValue();
+    }
+    return new Item((String) entity.getProperty(TITLE_KEY), (String) description,
+        (String) entity.getProperty(LANGUAGE_KEY), (String) entity.getProperty(EMAIL_KEY),
+        (String) entity.getProperty(LINK_KEY), (String) entity.getProperty(PUB_DATE_KEY));
+  }
+
+  /**
+   * Create an Episode entity for this item as a child of the given feed.
+   *
+   * @param feedKey : key of the UserFeed entity the episode belongs to
+   * @param timestamp : time used to order the episodes of a feed
+   * @return Episode entity
+   */
+  public Entity toEntity(Key feedKey, long timestamp) {
+    Entity episodeEntity = new Entity(EPISODE_KEY, feedKey);
+    episodeEntity.setUnindexedProperty(TITLE_KEY, this.title);
+    episodeEntity.setUnindexedProperty(LINK_KEY, this.link);
+    // Descriptions can be longer than the 1500 bytes allowed for a String property
+    episodeEntity.setUnindexedProperty(DESCRIPTION_KEY, this.description == null ? null : new Text(this.description));
+    episodeEntity.setUnindexedProperty(LANGUAGE_KEY, this.language);
+    episodeEntity.setUnindexedProperty(EMAIL_KEY, this.email);
+    episodeEntity.setUnindexedProperty(PUB_DATE_KEY, this.pubDate);
+    episodeEntity.setProperty(TIMESTAMP_KEY, timestamp);
+    return episodeEntity;
   }
 
   public void setTitle(String newTitle) {
@@ -86,4 +143,16 @@ public class Item {
   public String getLanguage(){
     return this.language;
   }
+
+  public String getLink() {
+    return this.link;
+  }
+
+  public String getEmail() {
+    return this.email;
+  }
+
+  public String getPubDate() {
+    return this.pubDate;
+  }
 }
@@ -1,12 +1,9 @@
 package com.google.launchpod.data;
 
-import java.util.ArrayList;
-
 /** An item on a comment list. */
 public final class LoginStatus {
   public boolean isLoggedIn;
   public String message;
-  public ArrayList<UserFeed> feeds;
 
   public static final String USER_FEED_KEY = "UserFeed";
   public static final String TITLE_KEY = "title";
@@ -18,17 +15,16 @@ public final class LoginStatus {
   public static final String TIMESTAMP_KEY = "timestamp";
   public static final String LANGUAGE_KEY = "language";
 
-  private LoginStatus(boolean isLoggedIn, String message, ArrayList<UserFeed> feeds) {
+  private LoginStatus(boolean isLoggedIn, String message) {
     this.isLoggedIn = isLoggedIn;
     this.message = message;
-    this.feeds = feeds;
   }
 
-  public static LoginStatus forSuccessfulLogin(String message, ArrayList<UserFeed> feeds) {
-    return new LoginStatus(true, message, feeds);
+  public static LoginStatus forSuccessfulLogin(String message) {
+    return new LoginStatus(true, message);
   }
 
   public static LoginStatus forFailedLogin(String message) {
-    return new LoginStatus(false, message, new ArrayList<UserFeed>());
+    return new LoginStatus(false, message);
   }
 }
\ No newline at end of file
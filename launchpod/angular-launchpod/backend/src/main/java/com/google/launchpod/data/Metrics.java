@@ -0,0 +1,66 @@
+package com.google.launchpod.data;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters kept by this instance since it started, shown at /metrics.
+ */
+public final class Metrics {
+
+  private static final ConcurrentMap<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+
+  private Metrics() {
+  }
+
+  public static void increment(String name) {
+    add(name, 1);
+  }
+
+  public static void add(String name, long delta) {
+    counter(name).addAndGet(delta);
+  }
+
+  /**
+   * Record how long one operation took, as a count, a total and a maximum.
+   */
+  public static void recordLatency(String name, long millis) {
+    counter(name + ".count").incrementAndGet();
+    counter(name + ".totalMillis").addAndGet(millis);
+    recordMax(name + ".maxMillis", millis);
+  }
+
+  /**
+   * Raise a counter to the given value if it is lower.
+   */
+  public static void recordMax(String name, long value) {
+    AtomicLong max = counter(name);
+    long currentMax = max.get();
+    while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  public static long get(String name) {
+    AtomicLong counter = COUNTERS.get(name);
+    return counter == null ? 0 : counter.get();
+  }
+
+  /**
+   * Current value of every counter, sorted by name.
+   */
+  public static Map<String, Long> snapshot() {
+    Map<String, Long> values = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().get());
+    }
+    return values;
+  }
+
+  private static AtomicLong counter(String name) {
+    return COUNTERS.computeIfAbsent(name, key -> new AtomicLong());
+  }
+}
@@ -0,0 +1,164 @@
+package com.google.launchpod.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * A text-to-speech episode being added to a feed in the background. The
+ * TtsJob entity, a child of the user's Account, holds the episode to add and
+ * how far the job got. Objects of this class are the status sent to the user,
+ * without the text.
+ */
+public final class TtsJob {
+
+  public static final String TTS_JOB_KEY = "TtsJob";
+  public static final String EMAIL_KEY = "email";
+  public static final String FEED_KEY_KEY = "feedKey";
+  public static final String TITLE_KEY = "title";
+  public static final String DESCRIPTION_KEY = "description";
+  public static final String LANGUAGE_KEY = "language";
+  public static final String TEXT_KEY = "text";
+  public static final String STATUS_KEY = "status";
+  public static final String MP3_LINK_KEY = "mp3Link";
+  public static final String ERROR_KEY = "error";
+  public static final String UPDATED_KEY = "updated";
+
+  public static final String QUEUED = "queued";
+  public static final String SYNTHESIZING = "synthesizing";
+  public static final String APPENDING = "appending";
+  public static final String DONE = "done";
+  public static final String FAILED = "failed";
+
+  private final String id;
+  private final String status;
+  private final String feedKey;
+  private final String mp3Link;
+  private final String error;
+
+  private TtsJob(String id, String status, String feedKey, String mp3Link, String error) {
+    this.id = id;
+    this.status = status;
+    this.feedKey = feedKey;
+    this.mp3Link = mp3Link;
+    this.error = error;
+  }
+
+  /**
+   * Create the entity of a new job, to be put in Datastore along with the task
+   * that runs it.
+   */
+  public static Entity newEntity(String email, Key feedKey, String title, String description, String language,
+      String text) {
+    Entity entity = new Entity(TTS_JOB_KEY, Account.keyFor(email));
+    entity.setUnindexedProperty(EMAIL_KEY, email);
+    entity.setUnindexedProperty(FEED_KEY_KEY, feedKey);
+    entity.setUnindexedProperty(TITLE_KEY, title);
+    entity.setUnindexedProperty(DESCRIPTION_KEY, new Text(description));
+    entity.setUnindexedProperty(LANGUAGE_KEY, language);
+    entity.setUnindexedProperty(TEXT_KEY, new Text(text));
+    entity.setUnindexedProperty(STATUS_KEY, QUEUED);
+    entity.setUnindexedProperty(UPDATED_KEY, System.currentTimeMillis());
+    return entity;
+  }
+
+  /**
+   * Create TtsJob object from a TtsJob entity.
+   */
+  public static TtsJob fromEntity(Entity entity) {
+    return new TtsJob(KeyFactory.keyToString(entity.getKey()), (String) entity.getProperty(STATUS_KEY),
+        KeyFactory.keyToString((Key) entity.getProperty(FEED_KEY_KEY)), (String) entity.getProperty(MP3_LINK_KEY),
+        (String) entity.getProperty(ERROR_KEY));
+  }
+
+  /**
+   * Record how far a job got. A finished job is left as it is, so a retry that
+   * fails after the job was done can't undo it.
+   *
+   * @param mp3Link : link to the episode audio, or null if there is none yet
+   * @param error : why the job failed or is being retried, or null
+   * @throws EntityNotFoundException if the job doesn't exist
+   */
+  public static void setStatus(DatastoreService datastore, Key jobKey, String status, String mp3Link, String error)
+      throws EntityNotFoundException {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity entity = datastore.get(txn, jobKey);
+      if (fromEntity(entity).isFinished()) {
+        return;
+      }
+      setStatus(entity, status, mp3Link, error);
+      datastore.put(txn, entity);
+      txn.commit();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Record that a job will be retried after an error. A job whose audio is
+   * already stored keeps the link, so the retry only adds the episode.
+   *
+   * @throws EntityNotFoundException if the job doesn't exist
+   */
+  public static void retry(DatastoreService datastore, Key jobKey, String error) throws EntityNotFoundException {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity entity = datastore.get(txn, jobKey);
+      if (fromEntity(entity).isFinished()) {
+        return;
+      }
+      String mp3Link = (String) entity.getProperty(MP3_LINK_KEY);
+      setStatus(entity, mp3Link == null ? QUEUED : APPENDING, mp3Link, error);
+      datastore.put(txn, entity);
+      txn.commit();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Record how far a job got on its entity, to be put by the caller.
+   */
+  static void setStatus(Entity entity, String status, String mp3Link, String error) {
+    entity.setUnindexedProperty(STATUS_KEY, status);
+    entity.setUnindexedProperty(MP3_LINK_KEY, mp3Link);
+    entity.setUnindexedProperty(ERROR_KEY, error);
+    entity.setUnindexedProperty(UPDATED_KEY, System.currentTimeMillis());
+  }
+
+  /**
+   * Whether the job has finished, successfully or not.
+   */
+  public boolean isFinished() {
+    return DONE.equals(status) || FAILED.equals(status);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public String getFeedKey() {
+    return feedKey;
+  }
+
+  public String getMp3Link() {
+    return mp3Link;
+  }
+
+  public String getError() {
+    return error;
+  }
+}
@@ -1,9 +1,12 @@
 package com.google.launchpod.data;
 
+import java.io.Serializable;
+
 import com.google.appengine.api.datastore.Entity;
-import com.google.launchpod.servlets.FormHandlerServlet;
 
-public final class UserFeed {
+public final class UserFeed implements Serializable {
+
+  private static final long serialVersionUID = 1L;
 
   private String xmlString;
   private String title;
@@ -38,7 +41,7 @@ public final class UserFeed {
    * @return UserFeed object
    */
   public static UserFeed fromEntity(Entity entity) {
-    String xmlString = (String) entity.getProperty(FormHandlerServlet.XML_STRING);
+    String xmlString = FeedStore.getXmlString(entity);
     return new UserFeed(xmlString);
   }
 
@@ -46,4 +49,9 @@ public final class UserFeed {
   public String getXmlString() {
     return this.xmlString;
   }
+
+  // getter for the key string of the feed entity
+  public String getKey() {
+    return this.key;
+  }
 }
\ No newline at end of file
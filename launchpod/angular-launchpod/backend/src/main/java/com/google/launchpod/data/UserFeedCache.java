@@ -0,0 +1,208 @@
+package com.google.launchpod.data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.joda.time.DateTimeUtils;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.collect.Lists;
+
+/**
+ * Cache of each user's UserFeed summaries in Memcache, newest first, which the
+ * first page of /my-feeds is served from. Servlets that create, change or
+ * delete a feed change the one cached entry it affects instead of listing the
+ * user's feeds again, and send back a {@link UserFeedDelta}. Changes are
+ * written with compare and set, so concurrent changes from other instances are
+ * never lost. A user whose list isn't cached gets it from the ancestor query in
+ * {@link FeedListing}, which already includes every change. Only lists of at
+ * most {@link #MAX_FEEDS} feeds are cached, so a cached list is always whole.
+ *
+ * Each user's list has a version, kept in its own Memcache counter, that goes
+ * up by one with every change. When the counter is lost it starts again from
+ * the current time, so it never goes back to a version a client has seen.
+ */
+public final class UserFeedCache {
+
+  public static final String HITS = "userFeedCache.hits";
+  public static final String MISSES = "userFeedCache.misses";
+  public static final String UPDATES = "userFeedCache.updates";
+  public static final String CONFLICTS = "userFeedCache.conflicts";
+
+  private static final String PREFIX = "userFeeds:";
+  private static final String VERSION_PREFIX = "userFeedsVersion:";
+  private static final int MAX_ATTEMPTS = 3;
+  // Users with more feeds page through them with cursors, which the cache can't give
+  static final int MAX_FEEDS = 100;
+  // Bounds how long a list can be wrong if a change to it was lost, like one
+  // from an instance that stopped between the Datastore write and the update
+  private static final Expiration EXPIRATION = Expiration.byDeltaSeconds(10 * 60);
+
+  private UserFeedCache() {
+  }
+
+  /**
+   * Get the UserFeed summaries of every feed created by a user, newest first,
+   * if there are at most limit of them.
+   *
+   * @return the feeds, or null if the user has more than limit feeds, so they
+   *         have to be paged through with a query
+   */
+  public static List<UserFeed> getFirstPage(DatastoreService datastore, String email, int limit) {
+    Object cached = memcache().get(PREFIX + email);
+    CachedFeeds cachedFeeds;
+    if (cached instanceof CachedFeeds) {
+      Metrics.increment(HITS);
+      cachedFeeds = (CachedFeeds) cached;
+    } else {
+      Metrics.increment(MISSES);
+      cachedFeeds = load(datastore, email);
+      // A change cached by another request in the meantime is newer than this list
+      memcache().put(PREFIX + email, cachedFeeds, EXPIRATION, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+    if (cachedFeeds.feeds == null || cachedFeeds.feeds.size() > limit) {
+      return null;
+    }
+    return Collections.unmodifiableList(cachedFeeds.feeds);
+  }
+
+  /**
+   * List the user's feeds to cache, or mark them as too many to cache.
+   */
+  private static CachedFeeds load(DatastoreService datastore, String email) {
+    UserFeedIterator userFeeds = FeedListing.iterateUserFeeds(datastore, email, MAX_FEEDS, null);
+    ArrayList<UserFeed> feeds = Lists.newArrayList(userFeeds);
+    return new CachedFeeds(userFeeds.getNextCursor() == null ? feeds : null);
+  }
+
+  /**
+   * Add a feed the user just created to the front of their cached list.
+   *
+   * @param feedEntity : the stored UserFeed entity
+   */
+  public static UserFeedDelta addFeed(String email, Entity feedEntity) {
+    UserFeed userFeed = FeedListing.toUserFeed(feedEntity, email);
+    update(email, userFeeds -> {
+      // The query may already include the feed if the list was just loaded
+      removeFeed(userFeeds, userFeed.getKey());
+      userFeeds.add(0, userFeed);
+    });
+    return UserFeedDelta.created(userFeed, nextVersion(email));
+  }
+
+  /**
+   * Replace the cached summary of a feed the user just changed, keeping its
+   * place in the list.
+   *
+   * @param feedEntity : the stored UserFeed entity
+   */
+  public static UserFeedDelta changeFeed(String email, Entity feedEntity) {
+    UserFeed userFeed = FeedListing.toUserFeed(feedEntity, email);
+    update(email, userFeeds -> userFeeds.replaceAll(
+        cachedFeed -> userFeed.getKey().equals(cachedFeed.getKey()) ? userFeed : cachedFeed));
+    return UserFeedDelta.changed(userFeed, nextVersion(email));
+  }
+
+  /**
+   * Remove a deleted feed from the user's cached list.
+   */
+  public static UserFeedDelta removeFeed(String email, Key feedKey) {
+    String keyString = KeyFactory.keyToString(feedKey);
+    update(email, userFeeds -> removeFeed(userFeeds, keyString));
+    return UserFeedDelta.deleted(keyString, nextVersion(email));
+  }
+
+  /**
+   * Drop the user's cached list, so the next read loads it again.
+   */
+  public static void invalidate(String email) {
+    memcache().delete(PREFIX + email);
+    nextVersion(email);
+  }
+
+  /**
+   * Apply a change to the user's cached list. A list that isn't cached is left
+   * alone, since loading it includes the change. If other instances keep
+   * changing the list, the cached list is dropped so the next read loads it
+   * again.
+   */
+  private static void update(String email, Consumer<ArrayList<UserFeed>> change) {
+    MemcacheService memcache = memcache();
+    String cacheKey = PREFIX + email;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      IdentifiableValue cached = memcache.getIdentifiable(cacheKey);
+      if (cached == null || !(cached.getValue() instanceof CachedFeeds)) {
+        return;
+      }
+      ArrayList<UserFeed> cachedFeeds = ((CachedFeeds) cached.getValue()).feeds;
+      if (cachedFeeds == null) {
+        // Too many feeds to cache, and so the list stays
+        return;
+      }
+      ArrayList<UserFeed> userFeeds = new ArrayList<UserFeed>(cachedFeeds);
+      change.accept(userFeeds);
+      CachedFeeds changedFeeds = new CachedFeeds(userFeeds.size() > MAX_FEEDS ? null : userFeeds);
+      if (memcache.putIfUntouched(cacheKey, cached, changedFeeds, EXPIRATION)) {
+        Metrics.increment(UPDATES);
+        return;
+      }
+      Metrics.increment(CONFLICTS);
+    }
+    memcache.delete(cacheKey);
+  }
+
+  /**
+   * Get the version of the user's list, which the next change to it goes past
+   * by one. Read it before listing the feeds, so a change made while they are
+   * listed is never missed.
+   */
+  public static long currentVersion(String email) {
+    long now = DateTimeUtils.currentTimeMillis();
+    Long version = memcache().increment(VERSION_PREFIX + email, 0, now);
+    return version != null ? version : now;
+  }
+
+  /**
+   * Count a change to the user's list and get its version.
+   */
+  private static long nextVersion(String email) {
+    long now = DateTimeUtils.currentTimeMillis();
+    Long version = memcache().increment(VERSION_PREFIX + email, 1, now);
+    // Memcache errors are logged and return null, a version from the clock still only goes up
+    return version != null ? version : now;
+  }
+
+  private static void removeFeed(ArrayList<UserFeed> userFeeds, String keyString) {
+    userFeeds.removeIf(userFeed -> keyString.equals(userFeed.getKey()));
+  }
+
+  private static MemcacheService memcache() {
+    return MemcacheServiceFactory.getMemcacheService();
+  }
+
+  /**
+   * A user's cached feeds.
+   */
+  private static final class CachedFeeds implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Null if the user has more than MAX_FEEDS feeds
+    private final ArrayList<UserFeed> feeds;
+
+    private CachedFeeds(ArrayList<UserFeed> feeds) {
+      this.feeds = feeds;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.google.launchpod.data;
+
+/**
+ * A change to one of the feeds in a user's list, sent back by the servlets
+ * that change it instead of the whole list. The version grows with every change
+ * to the list, so a client that sees it skip a number knows the list changed
+ * elsewhere and loads it again.
+ */
+public final class UserFeedDelta {
+
+  public static final String CREATED = "created";
+  public static final String CHANGED = "changed";
+  public static final String DELETED = "deleted";
+
+  private final String change;
+  private final String key;
+  // Left out for deleted feeds
+  private final UserFeed feed;
+  private final long version;
+
+  private UserFeedDelta(String change, String key, UserFeed feed, long version) {
+    this.change = change;
+    this.key = key;
+    this.feed = feed;
+    this.version = version;
+  }
+
+  static UserFeedDelta created(UserFeed feed, long version) {
+    return new UserFeedDelta(CREATED, feed.getKey(), feed, version);
+  }
+
+  static UserFeedDelta changed(UserFeed feed, long version) {
+    return new UserFeedDelta(CHANGED, feed.getKey(), feed, version);
+  }
+
+  static UserFeedDelta deleted(String key, long version) {
+    return new UserFeedDelta(DELETED, key, null, version);
+  }
+
+  public String getChange() {
+    return change;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public UserFeed getFeed() {
+    return feed;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+}
@@ -0,0 +1,58 @@
+package com.google.launchpod.data;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * UserFeed summaries of a user's feeds, created from the results of a listing
+ * query as they are read. Once the feeds run out, the listing is added to the
+ * metrics and the cursor of the next page is known.
+ */
+public final class UserFeedIterator extends AbstractIterator<UserFeed> {
+
+  private final QueryResultIterator<Entity> results;
+  private final String email;
+  private final int limit;
+  private int count = 0;
+  private long bytesRead = 0;
+  private boolean done = false;
+  private String nextCursor;
+
+  UserFeedIterator(QueryResultIterator<Entity> results, String email, int limit) {
+    this.results = results;
+    this.email = email;
+    this.limit = limit;
+  }
+
+  @Override
+  protected UserFeed computeNext() {
+    if (this.count < this.limit && this.results.hasNext()) {
+      Entity entity = this.results.next();
+      this.count++;
+      this.bytesRead += FeedListing.summaryBytes(entity);
+      return FeedListing.toUserFeed(entity, this.email);
+    }
+
+    if (this.count == this.limit) {
+      // Cursor after the last feed on this page
+      Cursor pageEnd = this.results.getCursor();
+      this.nextCursor = this.results.hasNext() ? pageEnd.toWebSafeString() : null;
+    }
+    this.done = true;
+    FeedListing.recordListing(this.bytesRead);
+    return endOfData();
+  }
+
+  /**
+   * Cursor to pass back for the page after this one, or null on the last page.
+   *
+   * @throws IllegalStateException if there are feeds left to read
+   */
+  public String getNextCursor() {
+    Preconditions.checkState(this.done, "The next cursor is known once every feed on the page is read.");
+    return this.nextCursor;
+  }
+}
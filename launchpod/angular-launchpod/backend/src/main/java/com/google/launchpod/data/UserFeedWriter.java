@@ -0,0 +1,96 @@
+package com.google.launchpod.data;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes lists of UserFeed summaries, and changes to them, as JSON, one feed at a time, so a long
+ * list is never built up as a single string. The writer is flushed every
+ * {@link #FLUSH_FEEDS} feeds, so the start of the list reaches the client while
+ * the rest is still being read.
+ */
+public final class UserFeedWriter {
+
+  static final int FLUSH_FEEDS = 50;
+  private static final String FEEDS = "feeds";
+  private static final String NEXT_CURSOR = "nextCursor";
+  private static final String VERSION = "version";
+  private static final Gson GSON = new Gson();
+
+  private UserFeedWriter() {
+  }
+
+  /**
+   * Write the feeds as a JSON array.
+   */
+  public static void writeUserFeeds(Writer out, Iterator<UserFeed> userFeeds) throws IOException {
+    JsonWriter jsonWriter = new JsonWriter(out);
+    writeArray(jsonWriter, userFeeds);
+    jsonWriter.flush();
+  }
+
+  /**
+   * Write a page of feeds as a JSON object with the version of the user's list,
+   * the feeds and the cursor of the next page, which is left out on the last
+   * page.
+   *
+   * @param version : version of the list from {@link UserFeedCache#currentVersion}
+   */
+  public static void writeUserFeedPage(Writer out, UserFeedIterator userFeeds, long version) throws IOException {
+    writePage(out, userFeeds, userFeeds::getNextCursor, version);
+  }
+
+  /**
+   * Write every one of a user's feeds as the only page, like
+   * {@link #writeUserFeedPage(Writer, UserFeedIterator, long)}.
+   */
+  public static void writeUserFeedPage(Writer out, List<UserFeed> userFeeds, long version) throws IOException {
+    writePage(out, userFeeds.iterator(), () -> null, version);
+  }
+
+  /**
+   * Write a change to the user's list of feeds as a JSON object.
+   */
+  public static void writeUserFeedDelta(Writer out, UserFeedDelta delta) throws IOException {
+    JsonWriter jsonWriter = new JsonWriter(out);
+    GSON.toJson(delta, UserFeedDelta.class, jsonWriter);
+    jsonWriter.flush();
+  }
+
+  /**
+   * Write a page of feeds, asking for the next cursor once they are written.
+   */
+  private static void writePage(Writer out, Iterator<UserFeed> userFeeds, Supplier<String> nextCursorSupplier,
+      long version) throws IOException {
+    JsonWriter jsonWriter = new JsonWriter(out);
+    jsonWriter.beginObject();
+    jsonWriter.name(VERSION).value(version);
+    jsonWriter.name(FEEDS);
+    writeArray(jsonWriter, userFeeds);
+    String nextCursor = nextCursorSupplier.get();
+    if (nextCursor != null) {
+      jsonWriter.name(NEXT_CURSOR).value(nextCursor);
+    }
+    jsonWriter.endObject();
+    jsonWriter.flush();
+  }
+
+  private static void writeArray(JsonWriter jsonWriter, Iterator<UserFeed> userFeeds) throws IOException {
+    jsonWriter.beginArray();
+    int unflushedFeeds = 0;
+    while (userFeeds.hasNext()) {
+      GSON.toJson(userFeeds.next(), UserFeed.class, jsonWriter);
+      if (++unflushedFeeds == FLUSH_FEEDS) {
+        jsonWriter.flush();
+        unflushedFeeds = 0;
+      }
+    }
+    jsonWriter.endArray();
+  }
+}
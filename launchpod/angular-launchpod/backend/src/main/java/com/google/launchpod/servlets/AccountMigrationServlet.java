@@ -0,0 +1,58 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.launchpod.data.AccountMigration;
+
+@WebServlet("/admin/migrate-accounts")
+public class AccountMigrationServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+  private static final Gson GSON = new Gson();
+  public static final String CURSOR = "cursor";
+  public static final String NEXT_CURSOR = "nextCursor";
+  // Few enough feeds that a batch with long feeds still finishes within the request deadline
+  private static final int BATCH_SIZE = 20;
+
+  /**
+   * Moves the next batch of feeds stored as root entities into the Account
+   * entity groups of their owners. Post again with the returned cursor until no
+   * cursor is returned. Only app admins can run it.
+   *
+   * @throws IOException
+   */
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      res.sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can migrate feeds.");
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    String nextCursor;
+    try {
+      nextCursor = AccountMigration.moveFeeds(datastore, req.getParameter(CURSOR), BATCH_SIZE);
+    } catch (IllegalArgumentException e) {
+      res.sendError(HttpServletResponse.SC_BAD_REQUEST, "This cursor is not valid.");
+      return;
+    }
+
+    Map<String, String> result = new LinkedHashMap<>();
+    result.put(NEXT_CURSOR, nextCursor);
+    res.setContentType("application/json");
+    res.getWriter().println(GSON.toJson(result));
+  }
+}
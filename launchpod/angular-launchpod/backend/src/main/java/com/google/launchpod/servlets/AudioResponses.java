@@ -0,0 +1,205 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Blob.BlobSourceOption;
+
+/**
+ * Helpers for serving episode audio to podcast players, which ask for byte
+ * ranges of it to seek and to resume downloads. Audio is streamed from Cloud
+ * Storage in buffers of {@link #BUFFER_SIZE} bytes, so it is never held in
+ * memory whole.
+ */
+final class AudioResponses {
+
+  private static final String RANGE = "Range";
+  private static final String IF_RANGE = "If-Range";
+  private static final String BYTES_UNIT = "bytes=";
+  // Stored audio never changes, new audio gets a new name
+  private static final String CACHE_CONTROL_VALUE = "public, max-age=31536000, immutable";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // More ranges than this are answered with the whole audio instead
+  private static final int MAX_RANGES = 16;
+
+  private AudioResponses() {
+  }
+
+  /**
+   * Send the audio stored in the blob, or the byte ranges of it asked for by a
+   * Range header.
+   */
+  static void send(HttpServletRequest req, HttpServletResponse res, Blob blob, String contentType)
+      throws IOException {
+    long length = blob.getSize();
+    String eTag = "\"" + blob.getGeneration() + "\"";
+    res.setHeader("Accept-Ranges", "bytes");
+    res.setHeader("ETag", eTag);
+    res.setHeader("Cache-Control", CACHE_CONTROL_VALUE);
+    if (blob.getUpdateTime() != null) {
+      res.setDateHeader("Last-Modified", blob.getUpdateTime());
+    }
+    if (FeedResponses.isNotModified(req, eTag, blob.getUpdateTime() == null ? 0 : blob.getUpdateTime())) {
+      res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    List<long[]> ranges = null;
+    String ifRange = req.getHeader(IF_RANGE);
+    // A range of an older version of the audio would be useless, so send all of it
+    if (ifRange == null || ifRange.equals(eTag)) {
+      ranges = parseRanges(req.getHeader(RANGE), length);
+    }
+    if (ranges != null && ranges.isEmpty()) {
+      res.setHeader("Content-Range", "bytes */" + length);
+      res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+
+    // Reading only the generation the headers describe keeps the ranges consistent
+    try (ReadChannel reader = blob.reader(BlobSourceOption.generationMatch())) {
+      OutputStream out = res.getOutputStream();
+      if (ranges == null) {
+        res.setContentType(contentType);
+        res.setContentLengthLong(length);
+        copy(reader, out, 0, length);
+      } else if (ranges.size() == 1) {
+        long[] range = ranges.get(0);
+        res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        res.setContentType(contentType);
+        res.setHeader("Content-Range", contentRange(range, length));
+        res.setContentLengthLong(range[1] - range[0] + 1);
+        copy(reader, out, range[0], range[1] + 1);
+      } else {
+        sendMultipart(res, out, reader, ranges, length, contentType);
+      }
+    }
+  }
+
+  private static void sendMultipart(HttpServletResponse res, OutputStream out, ReadChannel reader,
+      List<long[]> ranges, long length, String contentType) throws IOException {
+    String boundary = UUID.randomUUID().toString();
+    List<byte[]> partHeaders = new ArrayList<>();
+    long contentLength = 0;
+    for (long[] range : ranges) {
+      byte[] partHeader = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: "
+          + contentRange(range, length) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+      partHeaders.add(partHeader);
+      contentLength += partHeader.length + range[1] - range[0] + 1;
+    }
+    byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    contentLength += end.length;
+
+    res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    res.setContentType("multipart/byteranges; boundary=" + boundary);
+    res.setContentLengthLong(contentLength);
+    for (int i = 0; i < ranges.size(); i++) {
+      out.write(partHeaders.get(i));
+      copy(reader, out, ranges.get(i)[0], ranges.get(i)[1] + 1);
+    }
+    out.write(end);
+  }
+
+  /**
+   * Copy the bytes from start up to end of the audio.
+   */
+  private static void copy(ReadChannel reader, OutputStream out, long start, long end) throws IOException {
+    reader.seek(start);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    long remaining = end - start;
+    while (remaining > 0) {
+      buffer.clear();
+      buffer.limit((int) Math.min(BUFFER_SIZE, remaining));
+      int read = reader.read(buffer);
+      if (read < 0) {
+        throw new IOException("The audio ended before the range did.");
+      }
+      out.write(buffer.array(), 0, read);
+      remaining -= read;
+    }
+  }
+
+  private static String contentRange(long[] range, long length) {
+    return "bytes " + range[0] + "-" + range[1] + "/" + length;
+  }
+
+  /**
+   * Parse the byte ranges of a Range header, as the first and last byte of each
+   * range, in order and with overlapping or adjacent ranges merged.
+   *
+   * @return the ranges, an empty list if none of them is in the audio, or null
+   *         to send the whole audio because there is no valid Range header
+   */
+  static List<long[]> parseRanges(String header, long length) {
+    if (header == null || !header.startsWith(BYTES_UNIT)) {
+      return null;
+    }
+    List<long[]> ranges = new ArrayList<>();
+    String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+    for (String spec : specs) {
+      spec = spec.trim();
+      int dash = spec.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+      String firstPart = spec.substring(0, dash).trim();
+      String lastPart = spec.substring(dash + 1).trim();
+      long first;
+      long last;
+      try {
+        if (firstPart.isEmpty()) {
+          // A suffix range, the last bytes of the audio
+          long suffixLength = Long.parseLong(lastPart);
+          if (suffixLength < 0) {
+            return null;
+          }
+          if (suffixLength == 0) {
+            continue;
+          }
+          first = Math.max(0, length - suffixLength);
+          last = length - 1;
+        } else {
+          first = Long.parseLong(firstPart);
+          last = lastPart.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastPart);
+          if (last < first) {
+            return null;
+          }
+          last = Math.min(last, length - 1);
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      if (first < 0) {
+        return null;
+      }
+      if (first < length) {
+        ranges.add(new long[] { first, last });
+      }
+    }
+
+    ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+    List<long[]> merged = new ArrayList<>();
+    for (long[] range : ranges) {
+      long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      if (previous != null && range[0] <= previous[1] + 1) {
+        previous[1] = Math.max(previous[1], range[1]);
+      } else {
+        merged.add(range);
+      }
+    }
+    return merged;
+  }
+}
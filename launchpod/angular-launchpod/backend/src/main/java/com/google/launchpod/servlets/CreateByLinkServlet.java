@@ -6,18 +6,16 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Text;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.launchpod.data.RSS;
-import com.google.launchpod.data.Channel;
+import com.google.launchpod.data.FeedStore;
+import com.google.launchpod.data.Item;
 import com.google.common.base.Strings;
 
 @WebServlet("/create-by-link")
@@ -32,7 +30,6 @@ public class CreateByLinkServlet extends HttpServlet {
   private static final String EMAIL = "email";
   private static final String BASE_URL = "https://launchpod-step18-2020.appspot.com/rss-feed?id=";
   private static final String ID = "id";
-  private static final XmlMapper XML_MAPPER = new XmlMapper();
   // public variable to allow creation of UserFeed objects
   public static final String XML_STRING = "xmlString";
 
@@ -83,7 +80,7 @@ public class CreateByLinkServlet extends HttpServlet {
     try {
       // Use key to retrieve entity from Datastore
       entityKey = KeyFactory.stringToKey(id);
-      desiredFeedEntity = datastore.get(entityKey);
+      desiredFeedEntity = FeedStore.getFeed(datastore, entityKey);
     } catch (IllegalArgumentException e) {
       // If entityId cannot be converted into a key
       writeResponse(res, "Sorry, this is not a valid id.", HttpServletResponse.SC_BAD_REQUEST);
@@ -94,25 +91,16 @@ public class CreateByLinkServlet extends HttpServlet {
       return;
     }
 
-    Text xmlString = (Text) desiredFeedEntity.getProperty(XML_STRING);
-
-    // Modify the xml string
-    RSS rssFeed = XML_MAPPER.readValue(xmlString.getValue(), RSS.class);
-    Channel channel = rssFeed.getChannel();
-
     String entityEmail = (String) desiredFeedEntity.getProperty(EMAIL);
 
     // Verify that user is modifying a feed they created
-    if (entityEmail.equals(email)) {
-      channel.addItem(episodeTitle, episodeDescription, episodeLanguage, email, mp3Link);
-    } else {
+    if (!entityEmail.equals(email)) {
       throw new IOException("You are trying to edit a feed that's not yours!");
     }
-    
-    String modifiedXmlValue = RSS.toXmlString(rssFeed);
-    Text modifiedXmlString = new Text(modifiedXmlValue);
-    desiredFeedEntity.setProperty(XML_STRING, modifiedXmlString);
-    datastore.put(desiredFeedEntity);
+
+    // Store the episode as its own entity instead of rewriting the feed
+    Item item = new Item(episodeTitle, episodeDescription, episodeLanguage, email, mp3Link);
+    FeedStore.appendItem(datastore, desiredFeedEntity, item);
 
     // Return accessible link to client
     String urlID = KeyFactory.keyToString(desiredFeedEntity.getKey()); // the key string associated with the entity, not the numeric ID.
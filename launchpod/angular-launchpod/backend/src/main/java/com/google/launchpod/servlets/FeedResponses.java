@@ -0,0 +1,162 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.launchpod.data.FeedMeta;
+import com.google.launchpod.data.FeedPage;
+
+/**
+ * Helpers for serving feed XML to podcast apps, which poll feeds often and
+ * mostly get back a feed that hasn't changed.
+ */
+final class FeedResponses {
+
+  private static final String IF_NONE_MATCH = "If-None-Match";
+  private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  private static final String ACCEPT_ENCODING = "Accept-Encoding";
+  private static final String GZIP_ETAG_SUFFIX = "-gzip";
+  // Let clients and proxies reuse a feed for a few minutes before asking again
+  private static final String CACHE_CONTROL_VALUE = "public, max-age=300";
+  // Archive pages never change, so they can be kept for as long as caches like
+  private static final String ARCHIVE_CACHE_CONTROL_VALUE = "public, max-age=31536000, immutable";
+
+  private FeedResponses() {
+  }
+
+  /**
+   * Permanently redirect a request for a feed that moved to the same URL with
+   * the new key of the feed, so podcast apps update their subscription.
+   *
+   * @param idParameter : name of the parameter holding the feed key
+   */
+  static void sendMoved(HttpServletRequest req, HttpServletResponse res, String idParameter, Key newKey)
+      throws IOException {
+    StringBuilder location = new StringBuilder(req.getRequestURL()).append('?').append(idParameter).append('=')
+        .append(KeyFactory.keyToString(newKey));
+    for (Map.Entry<String, String[]> parameter : req.getParameterMap().entrySet()) {
+      if (parameter.getKey().equals(idParameter)) {
+        continue;
+      }
+      for (String value : parameter.getValue()) {
+        location.append('&').append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8.name())).append('=')
+            .append(URLEncoder.encode(value, StandardCharsets.UTF_8.name()));
+      }
+    }
+    res.setStatus(HttpServletResponse.SC_MOVED_PERMANENTLY);
+    res.setHeader("Location", location.toString());
+  }
+
+  /**
+   * Set the validator and caching headers of a feed response, and send 304 Not
+   * Modified if the client already has the current feed.
+   *
+   * @param gzip : whether the feed is sent gzip compressed, which has its own
+   *        entity tag since its bytes differ
+   * @return true if a 304 was sent and the feed should not be written
+   */
+  static boolean checkNotModified(HttpServletRequest req, HttpServletResponse res, FeedMeta feedMeta,
+      FeedPage feedPage, boolean gzip) {
+    String eTag = feedMeta.getETag(feedPage);
+    res.setHeader("ETag", gzip ? gzipETag(eTag) : eTag);
+    // The feed's last modified time changes with every episode, an archive page
+    // doesn't, so any copy of one a client has is still current
+    long lastModified = feedPage.isArchive() ? 0 : feedMeta.getLastModified();
+    if (!feedPage.isArchive()) {
+      res.setDateHeader("Last-Modified", lastModified);
+    }
+    res.setHeader("Cache-Control", feedPage.isArchive() ? ARCHIVE_CACHE_CONTROL_VALUE : CACHE_CONTROL_VALUE);
+    // The same URL is served compressed or not, so caches must keep both apart
+    res.setHeader("Vary", "Accept-Encoding");
+
+    if (isNotModified(req, eTag, lastModified)) {
+      res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Whether the client accepts gzip compressed responses.
+   */
+  static boolean acceptsGzip(HttpServletRequest req) {
+    String acceptEncoding = req.getHeader(ACCEPT_ENCODING);
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+      if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip")) {
+        continue;
+      }
+      // A quality of 0 means the client does not want gzip at all
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=") && param.substring(2).trim().matches("0(\\.0*)?")) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Write an already compressed feed.
+   */
+  static void writeGzip(HttpServletResponse res, byte[] gzip) throws IOException {
+    res.setContentType("text/xml");
+    res.setCharacterEncoding("UTF-8");
+    res.setHeader("Content-Encoding", "gzip");
+    res.setContentLength(gzip.length);
+    res.getOutputStream().write(gzip);
+  }
+
+  /**
+   * Entity tag of the gzip compressed representation of a response.
+   */
+  static String gzipETag(String eTag) {
+    return eTag.substring(0, eTag.length() - 1) + GZIP_ETAG_SUFFIX + "\"";
+  }
+
+  /**
+   * Whether the client already has the version of a response with the given
+   * validators, either as is or gzip compressed.
+   */
+  static boolean isNotModified(HttpServletRequest req, String eTag, long lastModified) {
+    // If-None-Match takes precedence over If-Modified-Since when both are sent
+    String ifNoneMatch = req.getHeader(IF_NONE_MATCH);
+    if (ifNoneMatch != null) {
+      String gzipETag = gzipETag(eTag);
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          // If-None-Match uses the weak comparison
+          tag = tag.substring(2);
+        }
+        if (tag.equals("*") || tag.equals(eTag) || tag.equals(gzipETag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = req.getDateHeader(IF_MODIFIED_SINCE);
+    } catch (IllegalArgumentException e) {
+      // Ignore dates that can't be parsed, as if the header wasn't sent
+      return false;
+    }
+    // HTTP dates only have second precision
+    return ifModifiedSince > 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+}
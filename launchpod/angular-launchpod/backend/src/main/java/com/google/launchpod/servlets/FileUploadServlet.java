@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -18,22 +19,25 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.PropertyContainer;
-import com.google.appengine.api.datastore.Text;
 import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.auth.appengine.AppEngineCredentials;
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.launchpod.data.RSS;
-import com.google.launchpod.data.Channel;
+import com.google.launchpod.data.FeedCache;
+import com.google.launchpod.data.FeedMeta;
+import com.google.launchpod.data.FeedMovedException;
+import com.google.launchpod.data.FeedPage;
+import com.google.launchpod.data.FeedStore;
+import com.google.launchpod.data.Item;
 import com.google.launchpod.data.MP3;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.PostPolicyV4;
@@ -66,7 +70,6 @@ public class FileUploadServlet extends HttpServlet {
 
   private static final String ID = "id";
   private static final String ACTION = "action";
-  private static final XmlMapper XML_MAPPER = new XmlMapper();
 
   // TO-DO after merging: move this to common place
   /*
@@ -108,6 +111,21 @@ public class FileUploadServlet extends HttpServlet {
     res.setStatus(statusCode);
   }
 
+  /**
+   * Write a message like {@link #writeResponse(HttpServletResponse, String, int)},
+   * through the output stream if it was already taken to write a feed.
+   */
+  private void writeResponse(HttpServletResponse res, String message, int statusCode, boolean streaming)
+      throws IOException {
+    if (!streaming) {
+      writeResponse(res, message, statusCode);
+      return;
+    }
+    res.setContentType("text/html");
+    res.setStatus(statusCode);
+    res.getOutputStream().write((message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+  }
+
   /**
    * Requests user inputs in form fields, then updates XML associated with entity id in Datastore.
    * @throws ServletException
@@ -144,7 +162,7 @@ public class FileUploadServlet extends HttpServlet {
     try {
       // Use key to retrieve entity from Datastore
       entityKey = KeyFactory.stringToKey(id);
-      desiredFeedEntity = datastore.get(entityKey);
+      desiredFeedEntity = FeedStore.getFeed(datastore, entityKey);
     } catch (IllegalArgumentException e) {
       // If entityId cannot be converted into a key
       writeResponse(res, "Sorry, this is not a valid id.", HttpServletResponse.SC_BAD_REQUEST);
@@ -156,32 +174,23 @@ public class FileUploadServlet extends HttpServlet {
     }
     String mp3Link = makeMp3Link(id);
 
-    // Create embedded entity to store MP3 data in desired entity as a property
-    EmbeddedEntity mp3 = new EmbeddedEntity();
-    mp3.setProperty(ID, id);
-    mp3.setProperty(MP3_LINK, mp3Link);
-    mp3.setProperty(EMAIL, email);
-    desiredFeedEntity.setProperty(MP3, mp3);
-
-    Text xmlString = (Text) desiredFeedEntity.getProperty(XML_STRING);
-
-    // Modify the xml string
-    RSS rssFeed = XML_MAPPER.readValue(xmlString.getValue(), RSS.class);
-    Channel channel = rssFeed.getChannel();
-      
     String entityEmail = (String) desiredFeedEntity.getProperty(EMAIL);
 
     // Verify that user is modifying a feed they created
-    if (entityEmail.equals(email)) {
-      channel.addItem(episodeTitle, episodeDescription, episodeLanguage, email, mp3Link);
-    } else {
+    if (!entityEmail.equals(email)) {
       throw new IOException("You are trying to edit a feed that's not yours!");
     }
 
-    String modifiedXmlValue = RSS.toXmlString(rssFeed);
-    Text modifiedXmlString = new Text(modifiedXmlValue);
-    desiredFeedEntity.setProperty(XML_STRING, modifiedXmlString);
-    datastore.put(desiredFeedEntity);
+    // Create embedded entity to store MP3 data in desired entity as a property
+    EmbeddedEntity mp3 = new EmbeddedEntity();
+    mp3.setProperty(ID, id);
+    mp3.setProperty(MP3_LINK, mp3Link);
+    mp3.setProperty(EMAIL, email);
+    setMp3(datastore, desiredFeedEntity.getKey(), mp3);
+
+    // Store the episode as its own entity instead of rewriting the feed
+    Item item = new Item(episodeTitle, episodeDescription, episodeLanguage, email, mp3Link);
+    FeedStore.appendItem(datastore, desiredFeedEntity, item);
 
     // Write the file upload form
     String formHtml = generateSignedPostPolicyV4(PROJECT_ID, BUCKET_NAME, id);
@@ -189,6 +198,26 @@ public class FileUploadServlet extends HttpServlet {
     res.getWriter().println(formHtml);
   }
 
+  /**
+   * Save MP3 data on a feed. The feed is read again in a transaction, so an
+   * episode added to it in the meantime is not overwritten.
+   */
+  private void setMp3(DatastoreService datastore, Key entityKey, EmbeddedEntity mp3) throws IOException {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity feedEntity = datastore.get(txn, entityKey);
+      feedEntity.setProperty(MP3, mp3);
+      datastore.put(txn, feedEntity);
+      txn.commit();
+    } catch (EntityNotFoundException e) {
+      throw new IOException("Your entity could not be found.", e);
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
   /**
    * Generate policy for directly uploading a file to Cloud Storage via HTML form.
    * @return HTML form (as a String) for uploading MP3
@@ -272,23 +301,37 @@ public class FileUploadServlet extends HttpServlet {
       case GENERATE_XML:
         DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
         Key entityKey = null;
-        Entity desiredFeedEntity = null; 
+        // once the output stream is taken, errors can't be written with the writer
+        boolean streaming = false;
         try {
-          // Use key to retrieve entity from Datastore
+          // Use key to retrieve the feed, from the cache when it hasn't changed
           entityKey = KeyFactory.stringToKey(id);
-          desiredFeedEntity = datastore.get(entityKey);
+          String cacheKey = FeedCache.currentKey(entityKey);
+          FeedMeta feedMeta = FeedStore.getFeedMeta(datastore, entityKey, cacheKey);
+          boolean gzip = FeedResponses.acceptsGzip(req);
+          if (FeedResponses.checkNotModified(req, res, feedMeta, FeedPage.all(), gzip)) {
+            return;
+          }
+          if (gzip) {
+            FeedResponses.writeGzip(res, FeedStore.getFeedGzip(datastore, entityKey, cacheKey, FeedPage.all()));
+            return;
+          }
+          res.setContentType("text/xml");
+          res.setCharacterEncoding("UTF-8");
+          streaming = true;
+          FeedStore.writeFeedXml(datastore, entityKey, cacheKey, FeedPage.all(), res.getOutputStream());
         } catch (IllegalArgumentException e) {
           // If entityId cannot be converted into a key
           writeResponse(res, "Sorry, this is not a valid id.", HttpServletResponse.SC_BAD_REQUEST);
           return;
         } catch (EntityNotFoundException e) {
-          // No matching entity in Datastore
-          writeResponse(res, "Your entity could not be found.", HttpServletResponse.SC_NOT_FOUND);
+          // No matching entity in Datastore, or the feed was deleted after its FeedMeta was read
+          writeResponse(res, "Your entity could not be found.", HttpServletResponse.SC_NOT_FOUND, streaming);
+          return;
+        } catch (FeedMovedException e) {
+          FeedResponses.sendMoved(req, res, ID, e.getNewKey());
           return;
         }
-        String xmlString = desiredFeedEntity.getProperty(XML_STRING).toString();
-        res.setContentType("text/xml");
-        res.getWriter().println(xmlString);
         break;
       default: 
         writeResponse(res, "Sorry, this is not a valid action.", HttpServletResponse.SC_BAD_REQUEST);
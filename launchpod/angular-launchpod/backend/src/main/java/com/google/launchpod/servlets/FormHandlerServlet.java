@@ -1,10 +1,7 @@
 package com.google.launchpod.servlets;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Locale;
+import java.nio.charset.StandardCharsets;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -17,24 +14,23 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Text;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
-import com.google.launchpod.data.LoginStatus;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.FeedCache;
+import com.google.launchpod.data.FeedMeta;
+import com.google.launchpod.data.FeedMovedException;
+import com.google.launchpod.data.FeedPage;
+import com.google.launchpod.data.FeedStore;
 import com.google.launchpod.data.RSS;
-import com.google.launchpod.data.UserFeed;
+import com.google.launchpod.data.UserFeedCache;
+import com.google.launchpod.data.UserFeedDelta;
+import com.google.launchpod.data.UserFeedWriter;
 
 @WebServlet("/rss-feed")
 public class FormHandlerServlet extends HttpServlet {
 
   private static final long serialVersionUID = 1L;
-  private static final String USER_FEED = "UserFeed";
   private static final String TITLE = "title";
   private static final String LANGUAGE = "language";
   private static final String USER_NAME = "name";
@@ -45,9 +41,11 @@ public class FormHandlerServlet extends HttpServlet {
   private static final String DESCRIPTION = "description";
   private static final String BASE_URL = "https://launchpod-step18-2020.appspot.com/rss-feed?id=";
   private static final String ID = "id";
+  private static final String PAGE = "page";
+  private static final String LIMIT = "limit";
+  private static final String INVALID_LINK_HTML = "<p>Sorry. This is not a valid link.</p>";
   // public variable to allow creation of UserFeed objects
   public static final String XML_STRING = "xmlString";
-  private static final Gson GSON = new Gson();
 
   /**
    * Requests user inputs in form fields, then creates Entity and places in
@@ -81,7 +79,8 @@ public class FormHandlerServlet extends HttpServlet {
     }
 
     // Creates entity with all desired attributes
-    Entity userFeedEntity = new Entity(USER_FEED);
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity userFeedEntity = new Entity(FeedStore.allocateFeedKey(datastore, Account.keyFor(email)));
 
     userFeedEntity.setProperty(TITLE, title);
     userFeedEntity.setProperty(USER_NAME, name);
@@ -93,46 +92,38 @@ public class FormHandlerServlet extends HttpServlet {
     // Generate xml string
     RSS rssFeed = new RSS(name, email, title, description, category, language);
     try {
-      String xmlValue = RSS.toXmlString(rssFeed);
-      Text xmlString = new Text(xmlValue);
-      userFeedEntity.setProperty(XML_STRING, xmlString);
+      FeedStore.createFeed(datastore, userFeedEntity, rssFeed);
     } catch (IOException e) {
       throw new IOException("Unable to create XML string.");
     }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.put(userFeedEntity);
-
-    Query query = new Query(LoginStatus.USER_FEED_KEY).addSort(LoginStatus.TIMESTAMP_KEY, SortDirection.DESCENDING);
-
-    PreparedQuery results = datastore.prepare(query);
-
-    ArrayList<UserFeed> userFeeds = new ArrayList<UserFeed>();
-    for (Entity entity : results.asIterable()) {
-      if (email.equals(entity.getProperty(USER_EMAIL).toString())) {
-        String userFeedTitle = (String) entity.getProperty(LoginStatus.TITLE_KEY);
-        String userFeedName = (String) entity.getProperty(LoginStatus.NAME_KEY);
-        String userFeedDescription = (String) entity.getProperty(LoginStatus.DESCRIPTION_KEY);
-        String userFeedLanguage = (String) entity.getProperty(LoginStatus.LANGUAGE_KEY);
-        long userFeedTimestamp = (long) entity.getProperty(LoginStatus.TIMESTAMP_KEY);
-        Date date = new Date(userFeedTimestamp);
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy  HH:mm:ss Z", Locale.getDefault());
-        String postTime = dateFormat.format(date);
-        Key key = entity.getKey();
-        
-        String urlID = KeyFactory.keyToString(entity.getKey()); // the key string associated with the entity, not the numeric ID.
-        String rssLink = BASE_URL + urlID;
-
-        userFeeds.add(new UserFeed(userFeedTitle, userFeedName, rssLink, userFeedDescription, email, postTime, urlID, userFeedLanguage));
-      }
-    }
+    UserFeedDelta delta = UserFeedCache.addFeed(email, userFeedEntity);
 
     res.setContentType("application/json");
-    res.getWriter().println(GSON.toJson(userFeeds));
+    UserFeedWriter.writeUserFeedDelta(res.getWriter(), delta);
+  }
+
+  /**
+   * Get the page of the feed asked for by the page and limit parameters. Without
+   * a page, the current feed document with the newest episodes is served.
+   *
+   * @throws NumberFormatException if the parameters are not numbers
+   * @throws IllegalArgumentException if the page doesn't exist
+   */
+  private static FeedPage getFeedPage(HttpServletRequest req, String feedUrl, int episodeCount) {
+    String page = req.getParameter(PAGE);
+    if (page != null) {
+      return FeedPage.archive(feedUrl, Integer.parseInt(page), episodeCount);
+    }
+    String limit = req.getParameter(LIMIT);
+    int itemLimit = limit == null ? FeedPage.DEFAULT_LIMIT : Integer.parseInt(limit);
+    itemLimit = Math.max(1, Math.min(itemLimit, FeedPage.MAX_LIMIT));
+    return FeedPage.current(feedUrl, itemLimit, episodeCount);
   }
 
   /**
    * Display RSS feed xml string that user tries recalling with the given ID.
+   * Long feeds are split into archive pages, see {@link FeedPage}.
    * 
    * @throws IOException
    */
@@ -146,20 +137,57 @@ public class FormHandlerServlet extends HttpServlet {
     Key urlID = KeyFactory.stringToKey(id);
     // Search key in datastore
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    // once the output stream is taken, errors can't be written with the writer
+    boolean streaming = false;
     // create entity that contains id from datastore
     try {
-      Entity desiredFeedEntity = datastore.get(urlID);
-
-      // generate xml string
-      Text xmlString = (Text) desiredFeedEntity.getProperty(XML_STRING);
+      // answer conditional requests from the small FeedMeta entity alone
+      String cacheKey = FeedCache.currentKey(urlID);
+      FeedMeta feedMeta = FeedStore.getFeedMeta(datastore, urlID, cacheKey);
+      FeedPage feedPage;
+      try {
+        feedPage = getFeedPage(req, BASE_URL + id, feedMeta.getEpisodeCount());
+      } catch (NumberFormatException e) {
+        res.setContentType("text/html");
+        res.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        res.getWriter().print("<p>Sorry. The page and limit of a feed must be numbers.</p>");
+        return;
+      } catch (IllegalArgumentException e) {
+        res.setContentType("text/html");
+        res.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        res.getWriter().print("<p>Sorry. This page of the feed doesn't exist.</p>");
+        return;
+      }
+      // most podcast apps take the feed gzipped, which is compressed once per version
+      boolean gzip = FeedResponses.acceptsGzip(req);
+      if (FeedResponses.checkNotModified(req, res, feedMeta, feedPage, gzip)) {
+        return;
+      }
+      if (gzip) {
+        FeedResponses.writeGzip(res, FeedStore.getFeedGzip(datastore, urlID, cacheKey, feedPage));
+        return;
+      }
+      // stream the xml, reusing the cached copy when the feed hasn't changed
       res.setContentType("text/xml");
-      res.getWriter().print(xmlString.getValue());
+      res.setCharacterEncoding("UTF-8");
+      streaming = true;
+      FeedStore.writeFeedXml(datastore, urlID, cacheKey, feedPage, res.getOutputStream());
+
+    } catch (FeedMovedException e) {
+      // Links made before the feed moved into its Account follow it there
+      FeedResponses.sendMoved(req, res, ID, e.getNewKey());
+      return;
 
       // If there is no entity that matches the key
     } catch (EntityNotFoundException e) {
       e.printStackTrace();
       res.setContentType("text/html");
-      res.getWriter().print("<p>Sorry. This is not a valid link.</p>");
+      if (streaming) {
+        // the feed was deleted after its FeedMeta was read, before anything was written
+        res.getOutputStream().write(INVALID_LINK_HTML.getBytes(StandardCharsets.UTF_8));
+      } else {
+        res.getWriter().print(INVALID_LINK_HTML);
+      }
       return;
     }
   }
@@ -15,10 +15,6 @@
 package com.google.launchpod.servlets;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Locale;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -27,26 +23,35 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
+import com.google.launchpod.data.FeedStore;
 import com.google.launchpod.data.LoginStatus;
-import com.google.launchpod.data.UserFeed;
+import com.google.launchpod.data.UserFeedCache;
+import com.google.launchpod.data.UserFeedDelta;
+import com.google.launchpod.data.UserFeedWriter;
 
 @WebServlet("/login-status")
 public class LoginServlet extends HttpServlet {
   private static final Gson GSON = new Gson();
-  private static final String BASE_URL = "https://launchpod-step18-2020.appspot.com/rss-feed?id=";
-
+  // The status only changes when the user logs in or out, which changes the
+  // login cookie the response varies on, so browsers can reuse it for a while
+  private static final String CACHE_CONTROL = "private, max-age=60";
+
+  /**
+   * Sends whether the user is logged in, with the URL to log out or in. The
+   * user's feeds are not part of it, the page gets them from /my-feeds when it
+   * shows them.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     response.setContentType("application/json");
+    response.setHeader("Cache-Control", CACHE_CONTROL);
+    response.setHeader("Vary", "Cookie");
 
     UserService userService = UserServiceFactory.getUserService();
     String urlToRedirectTo = "/index.html";
@@ -56,34 +61,7 @@ public class LoginServlet extends HttpServlet {
       String logoutUrl = userService.createLogoutURL(urlToRedirectTo);
       String loginMessage = "<p>Logged in as " + userEmail + ". <a href=\"" + logoutUrl + "\">Logout</a>.</p>";
 
-      Query query = new Query(LoginStatus.USER_FEED_KEY).addSort(LoginStatus.TIMESTAMP_KEY, SortDirection.DESCENDING);
-
-      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-      PreparedQuery results = datastore.prepare(query);
-
-      ArrayList<UserFeed> userFeeds = new ArrayList<UserFeed>();
-      for (Entity entity : results.asIterable()) {
-        if (userEmail.equals(entity.getProperty(FormHandlerServlet.USER_EMAIL).toString())) {
-          String userFeedEmail = String.valueOf(entity.getProperty(LoginStatus.EMAIL_KEY));
-          String title = (String) entity.getProperty(LoginStatus.TITLE_KEY);
-          String name = (String) entity.getProperty(LoginStatus.NAME_KEY);
-          String description = (String) entity.getProperty(LoginStatus.DESCRIPTION_KEY);
-          String language = (String) entity.getProperty(LoginStatus.LANGUAGE_KEY);
-          String email = (String) entity.getProperty(LoginStatus.EMAIL_KEY);
-          long timestamp = (long) entity.getProperty(LoginStatus.TIMESTAMP_KEY);
-          Date date = new Date(timestamp);
-          SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy  HH:mm:ss Z", Locale.getDefault());
-          String postTime = dateFormat.format(date);
-          Key key = entity.getKey();
-          
-          String urlID = KeyFactory.keyToString(entity.getKey()); // the key string associated with the entity, not the numeric ID.
-          String rssLink = BASE_URL + urlID;
-
-          userFeeds.add(new UserFeed(title, name, rssLink, description, email, postTime, urlID, language));
-        }
-      }
-
-      LoginStatus loginStatus = LoginStatus.forSuccessfulLogin(loginMessage, userFeeds);
+      LoginStatus loginStatus = LoginStatus.forSuccessfulLogin(loginMessage);
 
       response.getWriter().println(GSON.toJson(loginStatus));
     } else {
@@ -96,46 +74,45 @@ public class LoginServlet extends HttpServlet {
     }
   }
 
+  /**
+   * Deletes one of the logged in user's feeds, and sends the change to their
+   * list of feeds.
+   */
   @Override
   public void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
-    String id = req.getParameter("keyId");
-    Key key = KeyFactory.stringToKey(id);
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn()) {
+      res.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Please log in to delete your feeds.");
+      return;
+    }
     String userEmail = userService.getCurrentUser().getEmail();
 
-    datastore.delete(key);
-
-    Query query = new Query(LoginStatus.USER_FEED_KEY).addSort(LoginStatus.TIMESTAMP_KEY, SortDirection.DESCENDING);
-
-    PreparedQuery results = datastore.prepare(query);
-
-    ArrayList<UserFeed> userFeeds = new ArrayList<UserFeed>();
-    for (Entity entity : results.asIterable()) {
-      String userFeedEmail = String.valueOf(entity.getProperty(LoginStatus.EMAIL_KEY));
-      if (userEmail.equals(userFeedEmail)) {
-        String feedTitle = (String) entity.getProperty(LoginStatus.TITLE_KEY);
-        String feedName = (String) entity.getProperty(LoginStatus.NAME_KEY);
-        String feedDescription = (String) entity.getProperty(LoginStatus.DESCRIPTION_KEY);
-        String feedLanguage = (String) entity.getProperty(LoginStatus.LANGUAGE_KEY);
-        String feedEmail = (String) entity.getProperty(LoginStatus.EMAIL_KEY);
-        long feedTimestamp = (long) entity.getProperty(LoginStatus.TIMESTAMP_KEY);
-        Date date = new Date(feedTimestamp);
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy  HH:mm:ss Z", Locale.getDefault());
-        String feedPostTime = dateFormat.format(date);
-        Key feedKey = (Key) entity.getKey();
-
-        String feedUrlID = KeyFactory.keyToString(entity.getKey()); // the key string associated with the entity, not
-                                                                    // the numeric ID.
-        String feedRssLink = BASE_URL + feedUrlID;
-
-        userFeeds.add(new UserFeed(feedTitle, feedName, feedRssLink, feedDescription, feedEmail, feedPostTime,
-            feedUrlID, feedLanguage));
+    String id = req.getParameter("keyId");
+    Key key;
+    try {
+      if (id == null) {
+        throw new IllegalArgumentException("No feed id");
       }
+      key = KeyFactory.stringToKey(id);
+    } catch (IllegalArgumentException e) {
+      res.sendError(HttpServletResponse.SC_BAD_REQUEST, "This feed id is not valid.");
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key deletedKey;
+    try {
+      // Links made before the feed moved into its Account delete it under its new key
+      deletedKey = FeedStore.deleteFeed(datastore, key, userEmail);
+    } catch (EntityNotFoundException e) {
+      // Other users' feeds are not found, so they can't be told apart from missing ones
+      res.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no such feed.");
+      return;
     }
 
+    UserFeedDelta delta = UserFeedCache.removeFeed(userEmail, deletedKey);
+
     res.setContentType("application/json");
-    res.getWriter().println(GSON.toJson(userFeeds));
+    UserFeedWriter.writeUserFeedDelta(res.getWriter(), delta);
   }
 }
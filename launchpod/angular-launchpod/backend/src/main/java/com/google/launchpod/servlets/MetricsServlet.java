@@ -0,0 +1,38 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.launchpod.data.Metrics;
+
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+  private static final Gson GSON = new Gson();
+
+  /**
+   * Show the counters of this instance, such as feed cache hits and misses, to
+   * app admins.
+   *
+   * @throws IOException
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      res.sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can see metrics.");
+      return;
+    }
+
+    res.setContentType("application/json");
+    res.getWriter().println(GSON.toJson(Metrics.snapshot()));
+  }
+}
@@ -0,0 +1,83 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.launchpod.data.FeedListing;
+import com.google.launchpod.data.UserFeed;
+import com.google.launchpod.data.UserFeedCache;
+import com.google.launchpod.data.UserFeedIterator;
+import com.google.launchpod.data.UserFeedWriter;
+
+@WebServlet("/my-feeds")
+public class MyFeedsServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+  public static final String LIMIT = "limit";
+  public static final String CURSOR = "cursor";
+  public static final int DEFAULT_LIMIT = 20;
+  public static final int MAX_LIMIT = 100;
+
+  /**
+   * Sends one page of the logged in user's feeds, newest first, with the cursor
+   * to pass back for the next page and the version of the list. A first page
+   * with every one of the user's feeds comes from {@link UserFeedCache}.
+   *
+   * @throws IOException
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn()) {
+      res.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Please log in to see your feeds.");
+      return;
+    }
+    String email = userService.getCurrentUser().getEmail();
+
+    int limit;
+    try {
+      String limitParameter = req.getParameter(LIMIT);
+      limit = limitParameter == null ? DEFAULT_LIMIT : Integer.parseInt(limitParameter);
+    } catch (NumberFormatException e) {
+      res.sendError(HttpServletResponse.SC_BAD_REQUEST, "The limit must be a number.");
+      return;
+    }
+    limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+    // read before the feeds, so changes made while they are listed show up as newer
+    long version = UserFeedCache.currentVersion(email);
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    String cursor = req.getParameter(CURSOR);
+    if (cursor == null) {
+      // Most users' feeds fit on the first page, which is then served from the cache
+      List<UserFeed> cachedFeeds = UserFeedCache.getFirstPage(datastore, email, limit);
+      if (cachedFeeds != null) {
+        res.setContentType("application/json");
+        UserFeedWriter.writeUserFeedPage(res.getWriter(), cachedFeeds, version);
+        return;
+      }
+    }
+
+    UserFeedIterator userFeeds;
+    try {
+      userFeeds = FeedListing.iterateUserFeeds(datastore, email, limit, cursor);
+      // Run the query before writing anything, so a cursor Datastore rejects can still get an error
+      userFeeds.hasNext();
+    } catch (IllegalArgumentException e) {
+      res.sendError(HttpServletResponse.SC_BAD_REQUEST, "This cursor is not valid. Start from the first page.");
+      return;
+    }
+
+    res.setContentType("application/json");
+    UserFeedWriter.writeUserFeedPage(res.getWriter(), userFeeds, version);
+  }
+}
@@ -0,0 +1,77 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.cloud.texttospeech.v1.TextToSpeechClient;
+import com.google.cloud.texttospeech.v1.TextToSpeechSettings;
+import com.google.launchpod.data.Metrics;
+
+/**
+ * The TextToSpeechClient shared by every request of this instance. Creating a
+ * client loads credentials and opens gRPC channels with their own TLS
+ * handshakes, so it is created once, by the first request that needs it, and
+ * shut down by {@link TextToSpeechListener} when the instance stops. The client
+ * is thread safe, and concurrent calls are spread over a small pool of
+ * channels.
+ */
+public final class SharedTextToSpeechClient {
+
+  public static final String CLIENTS_CREATED = "tts.clientsCreated";
+  public static final String CLIENT_REUSES = "tts.clientReuses";
+
+  private static final int CHANNEL_POOL_SIZE = 2;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+  private static volatile TextToSpeechClient client;
+
+  private SharedTextToSpeechClient() {
+  }
+
+  /**
+   * Get the shared client, creating it if this is the first call.
+   *
+   * @throws IOException if the client can't be created, the next call tries again
+   */
+  public static TextToSpeechClient get() throws IOException {
+    TextToSpeechClient current = client;
+    if (current != null) {
+      Metrics.increment(CLIENT_REUSES);
+      return current;
+    }
+    synchronized (SharedTextToSpeechClient.class) {
+      if (client == null) {
+        TextToSpeechSettings settings = TextToSpeechSettings.newBuilder()
+            .setTransportChannelProvider(
+                TextToSpeechSettings.defaultGrpcTransportProviderBuilder().setPoolSize(CHANNEL_POOL_SIZE).build())
+            .build();
+        client = TextToSpeechClient.create(settings);
+        Metrics.increment(CLIENTS_CREATED);
+      } else {
+        Metrics.increment(CLIENT_REUSES);
+      }
+      return client;
+    }
+  }
+
+  /**
+   * Close the shared client, waiting a few seconds for calls still running.
+   */
+  static void shutdown() {
+    TextToSpeechClient current;
+    synchronized (SharedTextToSpeechClient.class) {
+      current = client;
+      client = null;
+    }
+    if (current == null) {
+      return;
+    }
+    current.shutdown();
+    try {
+      current.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    current.shutdownNow();
+  }
+}
@@ -0,0 +1,121 @@
+package com.google.launchpod.servlets;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTimeUtils;
+
+import com.google.auth.ServiceAccountSigner.SigningException;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.SignUrlOption;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.launchpod.data.Metrics;
+
+/**
+ * Short lived V4 signed URLs of episode audio in Cloud Storage, so podcast
+ * players can download it from Cloud Storage directly instead of through our
+ * instances. Each URL is kept per blob on this instance and handed out again
+ * until {@link #MIN_REMAINING_MILLIS} before it expires, so most plays need
+ * neither a signature nor a Cloud Storage call.
+ */
+final class SignedAudioUrls {
+
+  public static final String HITS = "tts.signedUrls.hits";
+  public static final String SIGNED = "tts.signedUrls.signed";
+  public static final String ERRORS = "tts.signedUrls.errors";
+
+  private static final long VALIDITY_MILLIS = TimeUnit.MINUTES.toMillis(15);
+  // Players that start with a URL still get this long to follow the redirect and resume
+  private static final long MIN_REMAINING_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  // Expired URLs are dropped once this many blobs have one, and all of them if
+  // none have expired
+  private static final int MAX_ENTRIES = 10000;
+  private static final ConcurrentMap<String, SignedUrl> URLS = new ConcurrentHashMap<>();
+
+  private SignedAudioUrls() {
+  }
+
+  /**
+   * Get the signed URL of the audio stored under a name if one is cached and
+   * stays valid long enough. Stored audio never changes, new audio gets a new
+   * name, so this needs no Cloud Storage call.
+   */
+  static SignedUrl getCached(String bucket, String name) {
+    SignedUrl cached = URLS.get(bucket + "/" + name);
+    if (cached != null && cached.isFresh(DateTimeUtils.currentTimeMillis())) {
+      Metrics.increment(HITS);
+      return cached;
+    }
+    return null;
+  }
+
+  /**
+   * Sign a new URL of the audio stored in the blob and cache it.
+   *
+   * @return the URL, or null if it can't be signed, like when the credentials of
+   *         the app can't sign
+   */
+  static SignedUrl sign(Storage storage, Blob blob) {
+    long now = DateTimeUtils.currentTimeMillis();
+    SignedUrl signedUrl;
+    try {
+      BlobInfo blobInfo = BlobInfo.newBuilder(blob.getBucket(), blob.getName()).build();
+      signedUrl = new SignedUrl(storage.signUrl(blobInfo, VALIDITY_MILLIS, TimeUnit.MILLISECONDS,
+          SignUrlOption.withV4Signature()).toString(), now + VALIDITY_MILLIS);
+    } catch (SigningException | IllegalStateException e) {
+      e.printStackTrace();
+      Metrics.increment(ERRORS);
+      return null;
+    }
+    Metrics.increment(SIGNED);
+    if (URLS.size() >= MAX_ENTRIES) {
+      URLS.values().removeIf(url -> !url.isFresh(now));
+      if (URLS.size() >= MAX_ENTRIES) {
+        URLS.clear();
+      }
+    }
+    URLS.put(blob.getBucket() + "/" + blob.getName(), signedUrl);
+    return signedUrl;
+  }
+
+  /**
+   * Drop every cached URL.
+   */
+  @VisibleForTesting
+  static void clear() {
+    URLS.clear();
+  }
+
+  /**
+   * A signed URL and when it expires.
+   */
+  static final class SignedUrl {
+
+    private final String url;
+    private final long expiresAtMillis;
+
+    private SignedUrl(String url, long expiresAtMillis) {
+      this.url = url;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    String getUrl() {
+      return url;
+    }
+
+    /**
+     * Seconds until the URL should no longer be handed out.
+     */
+    long getFreshSeconds() {
+      return Math.max(0, TimeUnit.MILLISECONDS.toSeconds(expiresAtMillis - MIN_REMAINING_MILLIS
+          - DateTimeUtils.currentTimeMillis()));
+    }
+
+    private boolean isFresh(long now) {
+      return expiresAtMillis - MIN_REMAINING_MILLIS > now;
+    }
+  }
+}
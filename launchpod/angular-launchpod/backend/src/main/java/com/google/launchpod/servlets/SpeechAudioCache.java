@@ -0,0 +1,137 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.texttospeech.v1.AudioConfig;
+import com.google.cloud.texttospeech.v1.VoiceSelectionParams;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.launchpod.data.Metrics;
+
+/**
+ * Synthesized audio stored in Cloud Storage under a name made from a hash of
+ * the text and the voice and audio settings, so the same text is only
+ * synthesized and stored once, whichever feed it is added to. Identical
+ * requests running at the same time on this instance wait for one synthesis
+ * instead of each making their own. Requests on other instances may still
+ * synthesize the same text, but only the first one stores it.
+ */
+public final class SpeechAudioCache {
+
+  public static final String HITS = "tts.audioCache.hits";
+  public static final String MISSES = "tts.audioCache.misses";
+  public static final String COLLAPSED = "tts.audioCache.collapsed";
+
+  private static final String PREFIX = "tts-";
+  // Precondition failed, another request stored the same audio first
+  private static final int PRECONDITION_FAILED = 412;
+  // Uploads are sent in chunks of a multiple of 256 KiB
+  private static final int UPLOAD_CHUNK_SIZE = 256 * 1024;
+  private static final ConcurrentMap<String, CompletableFuture<Void>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+  /**
+   * Synthesizes the audio of a text.
+   */
+  public interface Synthesis {
+    /**
+     * Write the audio to the channel, without closing it.
+     */
+    void synthesize(WritableByteChannel out) throws IOException;
+  }
+
+  private SpeechAudioCache() {
+  }
+
+  /**
+   * Get the name of the stored audio for the text, synthesizing and storing it
+   * first if it isn't stored yet.
+   *
+   * @param synthesis : synthesizes the text with the given voice and audio config
+   * @return name of the audio object in the bucket
+   * @throws IOException if the audio can't be synthesized or stored
+   */
+  public static String getOrCreate(Storage storage, String bucketName, String text, VoiceSelectionParams voice,
+      AudioConfig audioConfig, Synthesis synthesis) throws IOException {
+    String name = audioName(text, voice, audioConfig);
+    CompletableFuture<Void> created = new CompletableFuture<>();
+    CompletableFuture<Void> running = IN_FLIGHT.putIfAbsent(name, created);
+    if (running != null) {
+      Metrics.increment(COLLAPSED);
+      await(running);
+      return name;
+    }
+
+    try {
+      if (storage.get(BlobId.of(bucketName, name)) != null) {
+        Metrics.increment(HITS);
+      } else {
+        Metrics.increment(MISSES);
+        store(storage, BlobInfo.newBuilder(BlobId.of(bucketName, name)).setContentType("audio/mpeg").build(),
+            synthesis);
+      }
+      created.complete(null);
+      return name;
+    } catch (IOException | RuntimeException e) {
+      created.completeExceptionally(e);
+      throw e;
+    } finally {
+      IN_FLIGHT.remove(name, created);
+    }
+  }
+
+  /**
+   * Upload the audio as it is synthesized. Only a buffer of
+   * {@link #UPLOAD_CHUNK_SIZE} bytes is kept before it is sent, instead of the
+   * whole audio.
+   */
+  private static void store(Storage storage, BlobInfo blobInfo, Synthesis synthesis) throws IOException {
+    try {
+      WriteChannel writer = storage.writer(blobInfo, BlobWriteOption.doesNotExist());
+      writer.setChunkSize(UPLOAD_CHUNK_SIZE);
+      synthesis.synthesize(writer);
+      // Closing finishes the upload, so audio cut short by an error is never
+      // stored under the name of the whole text. The unfinished upload expires.
+      writer.close();
+    } catch (StorageException e) {
+      if (e.getCode() != PRECONDITION_FAILED) {
+        throw e;
+      }
+    }
+  }
+
+  private static void await(CompletableFuture<Void> running) throws IOException {
+    try {
+      running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the same text to be synthesized.", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to synthesize text.", e.getCause());
+    }
+  }
+
+  /**
+   * Name of the audio object for the text, voice and audio settings.
+   */
+  static String audioName(String text, VoiceSelectionParams voice, AudioConfig audioConfig) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    // Separate the fields so different splits of the same characters don't collide
+    for (String field : new String[] { text, voice.getLanguageCode(), voice.getName(),
+        voice.getSsmlGender().name(), audioConfig.getAudioEncoding().name() }) {
+      hasher.putString(field, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+    return PREFIX + hasher.hash().toString();
+  }
+}
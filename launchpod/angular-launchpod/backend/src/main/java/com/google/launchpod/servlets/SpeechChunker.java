@@ -0,0 +1,132 @@
+package com.google.launchpod.servlets;
+
+import java.nio.charset.StandardCharsets;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text to synthesize into chunks small enough for one Text-to-Speech
+ * request. Chunks end at paragraph or sentence boundaries where possible, so
+ * the voice doesn't pause mid sentence where they are joined. A sentence too
+ * long for one request is split between words, and a word too long for one
+ * request is split anywhere.
+ */
+public final class SpeechChunker {
+
+  private static final String PARAGRAPH_BREAK = "\n\n";
+  private static final String SENTENCE_BREAK = " ";
+
+  private SpeechChunker() {
+  }
+
+  /**
+   * Split the text into chunks of at most maxBytes bytes in UTF-8, in order.
+   * Blank text gives no chunks.
+   */
+  public static List<String> split(String text, Locale locale, int maxBytes) {
+    List<String> chunks = new ArrayList<>();
+    StringBuilder chunk = new StringBuilder();
+    int chunkBytes = 0;
+    for (String paragraph : text.split("\\n\\s*\\n")) {
+      String separator = PARAGRAPH_BREAK;
+      for (String sentence : sentences(paragraph.trim(), locale)) {
+        for (String piece : fit(sentence, maxBytes)) {
+          int pieceBytes = bytes(piece);
+          int separatorBytes = chunkBytes == 0 ? 0 : bytes(separator);
+          if (chunkBytes + separatorBytes + pieceBytes > maxBytes) {
+            chunks.add(chunk.toString());
+            chunk.setLength(0);
+            chunkBytes = 0;
+            separatorBytes = 0;
+          }
+          if (separatorBytes > 0) {
+            chunk.append(separator);
+          }
+          chunk.append(piece);
+          chunkBytes += separatorBytes + pieceBytes;
+          separator = SENTENCE_BREAK;
+        }
+      }
+    }
+    if (chunkBytes > 0) {
+      chunks.add(chunk.toString());
+    }
+    return chunks;
+  }
+
+  private static List<String> sentences(String paragraph, Locale locale) {
+    List<String> sentences = new ArrayList<>();
+    BreakIterator iterator = BreakIterator.getSentenceInstance(locale);
+    iterator.setText(paragraph);
+    int start = iterator.first();
+    for (int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+      String sentence = paragraph.substring(start, end).trim();
+      if (!sentence.isEmpty()) {
+        sentences.add(sentence);
+      }
+    }
+    return sentences;
+  }
+
+  /**
+   * Split a sentence into pieces of at most maxBytes bytes, between words if it
+   * is too long.
+   */
+  private static List<String> fit(String sentence, int maxBytes) {
+    List<String> pieces = new ArrayList<>();
+    if (bytes(sentence) <= maxBytes) {
+      pieces.add(sentence);
+      return pieces;
+    }
+    StringBuilder piece = new StringBuilder();
+    int pieceBytes = 0;
+    for (String word : sentence.split("\\s+")) {
+      int wordBytes = bytes(word);
+      if (pieceBytes > 0 && pieceBytes + 1 + wordBytes > maxBytes) {
+        pieces.add(piece.toString());
+        piece.setLength(0);
+        pieceBytes = 0;
+      }
+      if (wordBytes > maxBytes) {
+        splitWord(word, maxBytes, pieces);
+        continue;
+      }
+      if (pieceBytes > 0) {
+        piece.append(' ');
+        pieceBytes++;
+      }
+      piece.append(word);
+      pieceBytes += wordBytes;
+    }
+    if (pieceBytes > 0) {
+      pieces.add(piece.toString());
+    }
+    return pieces;
+  }
+
+  /**
+   * Split a word longer than maxBytes between code points.
+   */
+  private static void splitWord(String word, int maxBytes, List<String> pieces) {
+    int start = 0;
+    int pieceBytes = 0;
+    for (int i = 0; i < word.length();) {
+      int codePoint = word.codePointAt(i);
+      int codePointBytes = bytes(new String(Character.toChars(codePoint)));
+      if (pieceBytes + codePointBytes > maxBytes) {
+        pieces.add(word.substring(start, i));
+        start = i;
+        pieceBytes = 0;
+      }
+      pieceBytes += codePointBytes;
+      i += Character.charCount(codePoint);
+    }
+    pieces.add(word.substring(start));
+  }
+
+  private static int bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8).length;
+  }
+}
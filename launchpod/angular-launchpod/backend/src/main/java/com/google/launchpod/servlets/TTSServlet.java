@@ -1,10 +1,12 @@
 package com.google.launchpod.servlets;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 
 import javax.security.sasl.AuthenticationException;
 import javax.servlet.annotation.WebServlet;
@@ -12,43 +14,64 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Text;
-import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.RetryOptions;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.appengine.repackaged.com.google.gson.Gson;
+import com.google.api.core.ApiFuture;
 import com.google.cloud.storage.Blob;
-import com.google.cloud.storage.Blob.BlobSourceOption;
-import com.google.cloud.storage.BlobId;
-import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import com.google.cloud.texttospeech.v1.AudioConfig;
 import com.google.cloud.texttospeech.v1.AudioEncoding;
 import com.google.cloud.texttospeech.v1.SsmlVoiceGender;
 import com.google.cloud.texttospeech.v1.SynthesisInput;
+import com.google.cloud.texttospeech.v1.SynthesizeSpeechRequest;
 import com.google.cloud.texttospeech.v1.SynthesizeSpeechResponse;
 import com.google.cloud.texttospeech.v1.TextToSpeechClient;
 import com.google.cloud.texttospeech.v1.VoiceSelectionParams;
 import com.google.common.base.Strings;
-import com.google.launchpod.data.LoginStatus;
-import com.google.launchpod.data.RSS;
-import com.google.launchpod.data.UserFeed;
+import com.google.gson.Gson;
+import com.google.launchpod.data.FeedStore;
+import com.google.launchpod.data.Item;
+import com.google.launchpod.data.Metrics;
+import com.google.launchpod.data.TtsJob;
+import com.google.launchpod.data.UserFeedCache;
+import com.google.launchpod.data.UserFeedDelta;
+import com.google.launchpod.data.UserFeedWriter;
 import com.google.protobuf.ByteString;
 
 @WebServlet("/create-by-tts")
 public class TTSServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
+    public static final String SYNTHESIS_LATENCY = "tts.synthesisLatency";
+    public static final String SYNTHESIS_ERRORS = "tts.synthesisErrors";
+    public static final String SYNTHESIS_CHUNKS = "tts.synthesisChunks";
+    public static final String JOBS_QUEUED = "tts.jobsQueued";
+    public static final String AUDIO_STREAM_FALLBACKS = "tts.audioStreamFallbacks";
+    private static final String ASYNC = "async";
+    private static final String AUDIO_DELIVERY_PROPERTY = "launchpod.audioDelivery";
+    private static final String REDIRECT_DELIVERY = "redirect";
+    private static final Gson GSON = new Gson();
+    // The API takes at most 5000 bytes of text per request
+    private static final int MAX_CHUNK_BYTES = 5000;
+    private static final int MAX_PARALLEL_CALLS = 4;
+    private static final int ID3_HEADER_SIZE = 10;
+    private static final int ID3_FOOTER_FLAG = 0x10;
+    // Voice and audio settings, also part of the name the audio is stored under
+    private static final VoiceSelectionParams VOICE = VoiceSelectionParams.newBuilder().setLanguageCode("en-US")
+            .setSsmlGender(SsmlVoiceGender.FEMALE).build();
+    private static final AudioConfig AUDIO_CONFIG = AudioConfig.newBuilder().setAudioEncoding(AudioEncoding.MP3)
+            .build();
     private static final String TITLE = "episodeTitle";
     private static final String LANGUAGE = "episodeLanguage";
     private static final String DESCRIPTION = "episodeDescription";
@@ -57,25 +80,19 @@ public class TTSServlet extends HttpServlet {
     private static final String CATEGORY = "category";
     private static final String FEED_KEY = "id";
     private static final String TEXT = "text";
-    private static final String XML_STRING = "xmlString";
     private static final String ID = "id";
     private static final String USER_FEED = "UserFeed";
-    private static final String BASE_URL = "https://launchpod-step18-2020.appspot.com/rss-feed?id=";
     private static final String TTS_BASE_URL = "https://launchpod-step18-2020.appspot.com/create-by-tts?id=";
-    private static final Gson GSON = new Gson();
 
     // Variables required for cloud storage
     private static final String PROJECT_ID = "launchpod-step18-2020"; // ID of GCP Project
     private static final String BUCKET_NAME = "launchpod-mp3-files"; // ID of GCS bucket to upload to
 
-    static {
-        TranslationServlet.XML_MAPPER.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-    }
-
     /**
      * Requests user inputs from the form field to add item to existing channel, and
-     * synthesizes the podcast Text. Then returns original RSS feed with the updated
-     * item added by the user
+     * synthesizes the podcast Text. Then returns the change to the user's feed.
+     * With async=true, the episode is added by a task instead, and the response
+     * is 202 Accepted with the job to poll at {@link TtsJobServlet#URL}.
      * 
      * @throws IOException
      */
@@ -107,7 +124,7 @@ public class TTSServlet extends HttpServlet {
         DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
         Entity desiredFeedEntity = null;
         try {
-            desiredFeedEntity = datastore.get(desiredFeedKey);
+            desiredFeedEntity = FeedStore.getFeed(datastore, desiredFeedKey);
         } catch (EntityNotFoundException e) {
             e.printStackTrace();
             res.sendError(HttpServletResponse.SC_CONFLICT, "Unable to find given URL key, Please try again");
@@ -119,134 +136,230 @@ public class TTSServlet extends HttpServlet {
             throw new AuthenticationException("This user does not have permission to modify this feed.");
         }
 
-        // Turn the xml string back into an object
-        Text xmlString = (Text) desiredFeedEntity.getProperty(XML_STRING);
-        RSS rssFeed = null;
-        try {
-            rssFeed = TranslationServlet.XML_MAPPER.readValue(xmlString.getValue(), RSS.class);
-        } catch (Exception e) {
-            res.sendError(HttpServletResponse.SC_CONFLICT, "Unable to translate. Try again");
+        // Long scripts can take longer to synthesize than a request may run, so
+        // they can be added by a task instead
+        if (Boolean.parseBoolean(request.getParameter(ASYNC))) {
+            TtsJob job = enqueueJob(datastore, userEmail, desiredFeedEntity.getKey(), podcastTitle,
+                    podcastDescription, podcastLanguage, podcastText);
+            res.setStatus(HttpServletResponse.SC_ACCEPTED);
+            res.setHeader("Location", TtsJobServlet.URL + "?" + TtsJobServlet.ID + "=" + job.getId());
+            res.setContentType("application/json");
+            res.getWriter().println(GSON.toJson(job));
             return;
         }
 
-        // Synthesize The podcast Text
-        ByteString synthesizedMp3 = null;
+        String mp3Link;
         try {
-            synthesizedMp3 = synthesizeText(podcastText);
+            mp3Link = synthesizeEpisode(podcastText);
         } catch (Exception e) {
             res.sendError(HttpServletResponse.SC_CONFLICT, "unable to create mp3 from request. Please try again.");
             return;
         }
-        Storage storage = StorageOptions.newBuilder().setProjectId(PROJECT_ID).build().getService();
-        String itemCount;
-        if(rssFeed.getChannel().getItems().isEmpty() || rssFeed.getChannel().getItems() == null){
-            itemCount = "0" ;
-        }else{
-            itemCount = Integer.toString(rssFeed.getChannel().getItems().size());
-        }
-        BlobId blobId = BlobId.of(BUCKET_NAME, feedKey + itemCount);
-        BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
 
-        // create an uploadble array of bytes for blobstore
-        byte[] mp3Bytes = synthesizedMp3.toByteArray();
-        storage.create(blobInfo, mp3Bytes);
+        // Store the episode as its own entity instead of rewriting the feed
+        Item item = new Item(podcastTitle, podcastDescription, podcastLanguage, userEmail, mp3Link);
+        FeedStore.appendItem(datastore, desiredFeedEntity, item);
 
-        // Generate mp3 link
-        String mp3Link = TTS_BASE_URL + feedKey + itemCount; // creates unique ID for each episode
+        UserFeedDelta delta = UserFeedCache.changeFeed(userEmail, desiredFeedEntity);
 
-        rssFeed.getChannel().addItem(podcastTitle, podcastDescription, podcastLanguage, userEmail, mp3Link);
-
-        Text synthesizedXmlString = new Text(RSS.toXmlString(rssFeed));
-        desiredFeedEntity.setProperty(XML_STRING, synthesizedXmlString); // update existing entity's XML string
-
-        datastore.put(desiredFeedEntity);
-
-        Query query = new Query(LoginStatus.USER_FEED_KEY).addSort(LoginStatus.TIMESTAMP_KEY, SortDirection.DESCENDING);
-
-        PreparedQuery results = datastore.prepare(query);
+        res.setContentType("application/json");
+        UserFeedWriter.writeUserFeedDelta(res.getWriter(), delta);
+    }
 
-        ArrayList<UserFeed> userFeeds = new ArrayList<UserFeed>();
-        queryUserFeeds(userFeeds, results, userEmail);
+    /**
+     * Put a job that adds the episode to the feed, and the task that runs it, in
+     * Datastore in one transaction, so there is never a job without a task.
+     */
+    private static TtsJob enqueueJob(DatastoreService datastore, String email, Key feedKey, String title,
+            String description, String language, String text) {
+        Entity jobEntity = TtsJob.newEntity(email, feedKey, title, description, language, text);
+        Transaction txn = datastore.beginTransaction();
+        try {
+            datastore.put(txn, jobEntity);
+            QueueFactory.getDefaultQueue().add(txn, TaskOptions.Builder.withUrl(TtsTaskServlet.URL)
+                    .param(TtsTaskServlet.JOB_ID, KeyFactory.keyToString(jobEntity.getKey()))
+                    .retryOptions(RetryOptions.Builder.withTaskRetryLimit(TtsTaskServlet.MAX_ATTEMPTS - 1)));
+            txn.commit();
+        } finally {
+            if (txn.isActive()) {
+                txn.rollback();
+            }
+        }
+        Metrics.increment(JOBS_QUEUED);
+        return TtsJob.fromEntity(jobEntity);
+    }
 
-        res.setContentType("application/json");
-        res.getWriter().println(GSON.toJson(userFeeds));
+    /**
+     * Get the link to the audio of the text, synthesizing it unless the same
+     * text was synthesized before.
+     *
+     * @throws IOException if the text can't be synthesized or stored
+     */
+    static String synthesizeEpisode(String text) throws IOException {
+        Storage storage = StorageOptions.newBuilder().setProjectId(PROJECT_ID).build().getService();
+        String audioName = SpeechAudioCache.getOrCreate(storage, BUCKET_NAME, text, VOICE, AUDIO_CONFIG,
+                out -> synthesizeText(text, out));
+        return TTS_BASE_URL + audioName;
     }
 
     /**
      * doGet obtains an ID from the link to search for specific blob in cloud
-     * storage. After obtaining the blob, we get the bytes then stream that to the
-     * client using the server outputstream
+     * storage, and streams the audio to the client. Byte ranges asked for by
+     * podcast players are sent as partial content, see {@link AudioResponses}.
+     * When audio is redirected, the client is sent to a signed Cloud Storage URL
+     * of the audio instead, see {@link SignedAudioUrls}, and it is only streamed
+     * if the URL can't be signed.
      * 
      * @throws IOException when unable to run doGet method
      */
     public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
-        res.setContentType("audio/mpeg");
         String id = req.getParameter(ID);
 
         if (Strings.isNullOrEmpty(id)) {
             throw new IllegalArgumentException("Invalid URL. Please try again");
         }
 
+        if (redirectsAudio()) {
+            SignedAudioUrls.SignedUrl cachedUrl = SignedAudioUrls.getCached(BUCKET_NAME, id);
+            if (cachedUrl != null) {
+                sendRedirect(res, cachedUrl);
+                return;
+            }
+        }
+
         // Search for id in cloud storage from parameter ID
         Storage storage = StorageOptions.newBuilder().setProjectId(PROJECT_ID).build().getService();
         Blob desiredFeedBlob = storage.get(BUCKET_NAME, id);
-        byte[] blobBytes = desiredFeedBlob.getContent(BlobSourceOption.generationMatch());
-
-        // Write bytes to servlet output stream
-        res.getOutputStream().write(blobBytes);
-    }
+        if (desiredFeedBlob == null) {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no episode audio with this id.");
+            return;
+        }
 
-    public void queryUserFeeds(ArrayList<UserFeed> userFeeds, PreparedQuery results, String userEmail) {
-        for (Entity entity : results.asIterable()) {
-            if (userEmail.equals(entity.getProperty(EMAIL).toString())) {
-                String userFeedTitle = (String) entity.getProperty(LoginStatus.TITLE_KEY);
-                String userFeedName = (String) entity.getProperty(LoginStatus.NAME_KEY);
-                String userFeedDescription = (String) entity.getProperty(LoginStatus.DESCRIPTION_KEY);
-                String userFeedLanguage = (String) entity.getProperty(LoginStatus.LANGUAGE_KEY);
-                String userFeedEmail = (String) entity.getProperty(LoginStatus.EMAIL_KEY);
-                long userFeedTimestamp = (long) entity.getProperty(LoginStatus.TIMESTAMP_KEY);
-                Date date = new Date(userFeedTimestamp);
-                SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy  HH:mm:ss Z", Locale.getDefault());
-                String postTime = dateFormat.format(date);
-                Key key = entity.getKey();
-
-                String urlID = KeyFactory.keyToString(entity.getKey()); // the key string associated with the entity,
-                                                                        // not the
-                                                                        // numeric ID.
-                String rssLink = BASE_URL + urlID;
-
-                userFeeds.add(new UserFeed(userFeedTitle, userFeedName, rssLink, userFeedDescription, userFeedEmail,
-                        postTime, urlID, userFeedLanguage));
+        if (redirectsAudio()) {
+            SignedAudioUrls.SignedUrl signedUrl = SignedAudioUrls.sign(storage, desiredFeedBlob);
+            if (signedUrl != null) {
+                sendRedirect(res, signedUrl);
+                return;
             }
+            Metrics.increment(AUDIO_STREAM_FALLBACKS);
         }
+        AudioResponses.send(req, res, desiredFeedBlob, "audio/mpeg");
     }
 
     /**
-     * Synthesizes text into byte string using the text to speech client
+     * Whether episode audio is redirected to signed Cloud Storage URLs instead of
+     * streamed through this servlet.
+     */
+    static boolean redirectsAudio() {
+        return REDIRECT_DELIVERY.equals(System.getProperty(AUDIO_DELIVERY_PROPERTY));
+    }
+
+    private static void sendRedirect(HttpServletResponse res, SignedAudioUrls.SignedUrl signedUrl) {
+        // The redirect must not outlive the URL it points to
+        res.setHeader("Cache-Control", "private, max-age=" + signedUrl.getFreshSeconds());
+        res.setStatus(HttpServletResponse.SC_FOUND);
+        res.setHeader("Location", signedUrl.getUrl());
+    }
+
+    /**
+     * Synthesizes text into MP3 audio using the text to speech client. Text
+     * longer than one request allows is split by {@link SpeechChunker}, and up to
+     * {@link #MAX_PARALLEL_CALLS} chunks are synthesized at once. The audio of each
+     * chunk is written to the channel in order as soon as it is ready, so at most
+     * that many chunks of audio are held at once however long the text is.
      *
      * @param text the raw text to be synthesized
-     * @throws IOException on TextToSpeechClient Errors.
+     * @param out where the audio is written
+     * @throws IOException if the text can't be synthesized or written.
      */
-    public static ByteString synthesizeText(String text) throws IOException {
-        // Instantiates a client
-        try (TextToSpeechClient textToSpeechClient = TextToSpeechClient.create()) {
-            // Synthesize text that is inputted
-            SynthesisInput input = SynthesisInput.newBuilder().setText(text).build();
+    public static void synthesizeText(String text, WritableByteChannel out) throws IOException {
+        // The client is shared, so it must not be closed here
+        TextToSpeechClient textToSpeechClient = SharedTextToSpeechClient.get();
 
-            // Build voice and set the voice type
-            VoiceSelectionParams voice = VoiceSelectionParams.newBuilder().setLanguageCode("en-US")
-                    .setSsmlGender(SsmlVoiceGender.FEMALE).build();
+        List<String> chunks = SpeechChunker.split(text, Locale.US, MAX_CHUNK_BYTES);
+        if (chunks.isEmpty()) {
+            throw new IllegalArgumentException("There is no text to synthesize.");
+        }
+        Metrics.add(SYNTHESIS_CHUNKS, chunks.size());
 
-            // Select audio to be MP3
-            AudioConfig audioConfig = AudioConfig.newBuilder().setAudioEncoding(AudioEncoding.MP3).build();
+        // The calls run on the client's own transport, so no request threads are
+        // needed, only a limit on how many are waited for at once
+        long start = System.currentTimeMillis();
+        List<ApiFuture<SynthesizeSpeechResponse>> calls = new ArrayList<>();
+        boolean first = true;
+        try {
+            for (String chunk : chunks) {
+                if (calls.size() == MAX_PARALLEL_CALLS) {
+                    writeAudio(out, getAudio(calls.remove(0)), first);
+                    first = false;
+                }
+                SynthesizeSpeechRequest request = SynthesizeSpeechRequest.newBuilder()
+                        .setInput(SynthesisInput.newBuilder().setText(chunk).build()).setVoice(VOICE)
+                        .setAudioConfig(AUDIO_CONFIG).build();
+                calls.add(textToSpeechClient.synthesizeSpeechCallable().futureCall(request));
+            }
+            while (!calls.isEmpty()) {
+                writeAudio(out, getAudio(calls.remove(0)), first);
+                first = false;
+            }
+        } catch (IOException | RuntimeException e) {
+            Metrics.increment(SYNTHESIS_ERRORS);
+            for (ApiFuture<SynthesizeSpeechResponse> call : calls) {
+                call.cancel(true);
+            }
+            throw e;
+        } finally {
+            Metrics.recordLatency(SYNTHESIS_LATENCY, System.currentTimeMillis() - start);
+        }
+    }
 
-            // Perform the text-to-speech request
-            SynthesizeSpeechResponse response = textToSpeechClient.synthesizeSpeech(input, voice, audioConfig);
+    private static ByteString getAudio(ApiFuture<SynthesizeSpeechResponse> call) throws IOException {
+        try {
+            return call.get().getAudioContent();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while synthesizing text.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Unable to synthesize text.", e.getCause());
+        }
+    }
 
-            // Get the audio contents from the response
-            ByteString audioContents = response.getAudioContent();
+    /**
+     * Write the MP3 audio of a chunk after the audio before it. Only the first
+     * chunk keeps its ID3 tag, since a tag in the middle of the stream would be
+     * played as noise by some players.
+     */
+    private static void writeAudio(WritableByteChannel out, ByteString chunkAudio, boolean first)
+            throws IOException {
+        ByteString audio = first ? chunkAudio : chunkAudio.substring(id3TagSize(chunkAudio));
+        // The buffers share the bytes of the ByteString instead of copying them
+        for (ByteBuffer buffer : audio.asReadOnlyByteBufferList()) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
 
-            return audioContents;
+    /**
+     * Size of the ID3v2 tag at the start of MP3 audio, or 0 if it has none.
+     */
+    static int id3TagSize(ByteString audio) {
+        if (audio.size() < ID3_HEADER_SIZE || audio.byteAt(0) != 'I' || audio.byteAt(1) != 'D'
+                || audio.byteAt(2) != '3') {
+            return 0;
+        }
+        // The size is stored in 4 bytes of 7 bits each, and doesn't count the header or footer
+        int size = 0;
+        for (int i = 6; i < ID3_HEADER_SIZE; i++) {
+            size = size << 7 | (audio.byteAt(i) & 0x7f);
+        }
+        size += ID3_HEADER_SIZE;
+        if ((audio.byteAt(5) & ID3_FOOTER_FLAG) != 0) {
+            size += ID3_HEADER_SIZE;
         }
+        return Math.min(size, audio.size());
     }
 }
@@ -0,0 +1,23 @@
+package com.google.launchpod.servlets;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Closes the shared TextToSpeechClient and its channels when the instance
+ * stops.
+ */
+@WebListener
+public class TextToSpeechListener implements ServletContextListener {
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    // The client is created by the first request that needs it
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    SharedTextToSpeechClient.shutdown();
+  }
+}
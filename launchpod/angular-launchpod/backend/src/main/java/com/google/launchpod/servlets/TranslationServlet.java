@@ -3,10 +3,6 @@ package com.google.launchpod.servlets;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Locale;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -23,10 +19,6 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Text;
-import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.cloud.translate.v3.LocationName;
@@ -34,18 +26,19 @@ import com.google.cloud.translate.v3.TranslateTextRequest;
 import com.google.cloud.translate.v3.TranslateTextResponse;
 import com.google.cloud.translate.v3.TranslationServiceClient;
 import com.google.common.base.Strings;
-import com.google.gson.Gson;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.FeedStore;
 import com.google.launchpod.data.Item;
 import com.google.launchpod.data.ItunesCategory;
-import com.google.launchpod.data.LoginStatus;
 import com.google.launchpod.data.RSS;
-import com.google.launchpod.data.UserFeed;
+import com.google.launchpod.data.UserFeedCache;
+import com.google.launchpod.data.UserFeedDelta;
+import com.google.launchpod.data.UserFeedWriter;
 
 @WebServlet("/translate-feed")
 public class TranslationServlet extends HttpServlet {
 
   private static final long serialVersionUID = 1L;
-  private static final String USER_FEED = "UserFeed";
   private static final String RSS_FEED_LINK = "rssFeedLink";
   private static final String TITLE = "title";
   private static final String LANGUAGE = "language";
@@ -55,11 +48,9 @@ public class TranslationServlet extends HttpServlet {
   private static final String POST_TIME = "postTime";
   private static final String CATEGORY = "category";
   private static final String DESCRIPTION = "description";
-  private static final String BASE_URL = "https://launchpod-step18-2020.appspot.com/rss-feed?id=";
   private static final String ID = "id";
   private static final String XML_STRING = "xmlString";
   public static final XmlMapper XML_MAPPER = new XmlMapper();
-  private static final Gson GSON = new Gson();
 
   static {
     XML_MAPPER.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
@@ -91,16 +82,15 @@ public class TranslationServlet extends HttpServlet {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     Entity desiredFeedEntity = null;
     try {
-      desiredFeedEntity = datastore.get(desiredFeedKey);
+      desiredFeedEntity = FeedStore.getFeed(datastore, desiredFeedKey);
     } catch (EntityNotFoundException e) {
       e.printStackTrace();
       res.sendError(HttpServletResponse.SC_CONFLICT, "Unable to find given URL key, Please try again");
     }
-    Text xmlString = (Text) desiredFeedEntity.getProperty(XML_STRING);
 
     RSS rssFeed = null;
     try {
-      rssFeed = XML_MAPPER.readValue(xmlString.getValue(), RSS.class);
+      rssFeed = FeedStore.loadRss(datastore, desiredFeedEntity);
     } catch (Exception e) {
       res.sendError(HttpServletResponse.SC_CONFLICT, "Unable to translate. Try again");
     }
@@ -142,48 +132,20 @@ public class TranslationServlet extends HttpServlet {
       }
     }
 
-    // Generate Translated XML string then place it into datastore
-    String translatedXmlValue = RSS.toXmlString(rssFeed);
-    Text translatedXmlString = new Text(translatedXmlValue);
-    Entity translatedUserFeedEntity = new Entity(USER_FEED);
+    // Place the translated feed and its episodes into datastore
+    Entity translatedUserFeedEntity = new Entity(FeedStore.allocateFeedKey(datastore, Account.keyFor(email)));
     translatedUserFeedEntity.setProperty(TITLE, rssFeed.getChannel().getTitle());
     translatedUserFeedEntity.setProperty(USER_NAME, rssFeed.getChannel().getAuthor());
     translatedUserFeedEntity.setProperty(USER_EMAIL, email);
     translatedUserFeedEntity.setProperty(TIMESTAMP, timestamp);
     translatedUserFeedEntity.setProperty(DESCRIPTION, rssFeed.getChannel().getDescription());
     translatedUserFeedEntity.setProperty(LANGUAGE, targetLanguage);
-    translatedUserFeedEntity.setProperty(XML_STRING, translatedXmlString);
-    datastore.put(translatedUserFeedEntity);
-
-    Query query = new Query(LoginStatus.USER_FEED_KEY).addSort(LoginStatus.TIMESTAMP_KEY, SortDirection.DESCENDING);
-
-    PreparedQuery results = datastore.prepare(query);
-
-    ArrayList<UserFeed> userFeeds = new ArrayList<UserFeed>();
-    for (Entity entity : results.asIterable()) {
-      if (email.equals(entity.getProperty(USER_EMAIL).toString())) {
-        String userFeedTitle = (String) entity.getProperty(LoginStatus.TITLE_KEY);
-        String userFeedName = (String) entity.getProperty(LoginStatus.NAME_KEY);
-        String userFeedDescription = (String) entity.getProperty(LoginStatus.DESCRIPTION_KEY);
-        String userFeedLanguage = (String) entity.getProperty(LoginStatus.LANGUAGE_KEY);
-        String userFeedEmail = (String) entity.getProperty(LoginStatus.EMAIL_KEY);
-        long userFeedTimestamp = (long) entity.getProperty(LoginStatus.TIMESTAMP_KEY);
-        Date date = new Date(userFeedTimestamp);
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy  HH:mm:ss Z", Locale.getDefault());
-        String postTime = dateFormat.format(date);
-        Key key = entity.getKey();
-
-        String urlID = KeyFactory.keyToString(entity.getKey()); // the key string associated with the entity, not the
-                                                                // numeric ID.
-        String rssLink = BASE_URL + urlID;
-
-        userFeeds.add(new UserFeed(userFeedTitle, userFeedName, rssLink, userFeedDescription, userFeedEmail, postTime,
-            urlID, userFeedLanguage));
-      }
-    }
+    FeedStore.createFeed(datastore, translatedUserFeedEntity, rssFeed);
+
+    UserFeedDelta delta = UserFeedCache.addFeed(email, translatedUserFeedEntity);
 
     res.setContentType("application/json");
-    res.getWriter().println(GSON.toJson(userFeeds));
+    UserFeedWriter.writeUserFeedDelta(res.getWriter(), delta);
   }
 
   /**
@@ -0,0 +1,74 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.TtsJob;
+
+@WebServlet(TtsJobServlet.URL)
+public class TtsJobServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+  private static final Gson GSON = new Gson();
+  public static final String URL = "/tts-job";
+  public static final String ID = "id";
+
+  /**
+   * Sends the status of one of the logged in user's text-to-speech jobs, with
+   * the link to the episode audio once it is done.
+   *
+   * @throws IOException
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn()) {
+      res.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Please log in to see your jobs.");
+      return;
+    }
+    String email = userService.getCurrentUser().getEmail();
+
+    String id = req.getParameter(ID);
+    Key jobKey;
+    try {
+      if (id == null) {
+        throw new IllegalArgumentException("No job id");
+      }
+      jobKey = KeyFactory.stringToKey(id);
+    } catch (IllegalArgumentException e) {
+      res.sendError(HttpServletResponse.SC_BAD_REQUEST, "This job id is not valid.");
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity jobEntity;
+    try {
+      // Jobs are children of their owner's Account, so another user's job is never read
+      if (!Account.keyFor(email).equals(jobKey.getParent()) || !TtsJob.TTS_JOB_KEY.equals(jobKey.getKind())) {
+        throw new EntityNotFoundException(jobKey);
+      }
+      jobEntity = datastore.get(jobKey);
+    } catch (EntityNotFoundException e) {
+      res.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no such job.");
+      return;
+    }
+
+    res.setContentType("application/json");
+    res.setHeader("Cache-Control", "no-store");
+    res.getWriter().println(GSON.toJson(TtsJob.fromEntity(jobEntity)));
+  }
+}
@@ -0,0 +1,134 @@
+package com.google.launchpod.servlets;
+
+import java.io.IOException;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.launchpod.data.FeedStore;
+import com.google.launchpod.data.Item;
+import com.google.launchpod.data.Metrics;
+import com.google.launchpod.data.TtsJob;
+import com.google.launchpod.data.UserFeedCache;
+
+@WebServlet(TtsTaskServlet.URL)
+public class TtsTaskServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+  public static final String URL = "/tasks/tts";
+  public static final String JOB_ID = "jobId";
+  public static final int MAX_ATTEMPTS = 5;
+  public static final String JOBS_DONE = "tts.jobsDone";
+  public static final String JOBS_FAILED = "tts.jobsFailed";
+  public static final String JOB_LATENCY = "tts.jobLatency";
+  // Set by App Engine on task requests, and removed from requests made by users
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+  private static final String RETRY_COUNT_HEADER = "X-AppEngine-TaskRetryCount";
+
+  /**
+   * Runs a text-to-speech job queued by {@link TTSServlet}: synthesizes the
+   * text and adds the episode to the feed. An error response makes the queue
+   * retry the task, until the last attempt, which marks the job failed.
+   *
+   * @throws IOException
+   */
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    if (req.getHeader(QUEUE_NAME_HEADER) == null) {
+      res.sendError(HttpServletResponse.SC_FORBIDDEN, "Only the task queue can run jobs.");
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity jobEntity;
+    try {
+      jobEntity = datastore.get(KeyFactory.stringToKey(req.getParameter(JOB_ID)));
+    } catch (IllegalArgumentException | EntityNotFoundException e) {
+      // Retrying won't make the job appear, so the task is dropped
+      e.printStackTrace();
+      return;
+    }
+    if (TtsJob.fromEntity(jobEntity).isFinished()) {
+      return;
+    }
+
+    Key jobKey = jobEntity.getKey();
+    String retryCount = req.getHeader(RETRY_COUNT_HEADER);
+    boolean lastAttempt = retryCount != null && Integer.parseInt(retryCount) + 1 >= MAX_ATTEMPTS;
+    long start = System.currentTimeMillis();
+    try {
+      runJob(datastore, jobEntity);
+      Metrics.increment(JOBS_DONE);
+    } catch (EntityNotFoundException e) {
+      fail(datastore, jobKey, "The feed was deleted before the episode could be added.");
+    } catch (IllegalArgumentException e) {
+      fail(datastore, jobKey, e.getMessage());
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+      if (lastAttempt) {
+        fail(datastore, jobKey, "Unable to create mp3 from request. Please try again.");
+      } else {
+        retry(datastore, jobKey, "Retrying after an error.");
+        res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The job will be retried.");
+      }
+    } finally {
+      Metrics.recordLatency(JOB_LATENCY, System.currentTimeMillis() - start);
+    }
+  }
+
+  private static void runJob(DatastoreService datastore, Entity jobEntity)
+      throws IOException, EntityNotFoundException {
+    Key jobKey = jobEntity.getKey();
+    String email = (String) jobEntity.getProperty(TtsJob.EMAIL_KEY);
+    Key feedKey = (Key) jobEntity.getProperty(TtsJob.FEED_KEY_KEY);
+
+    // A retry after the audio was stored only has the episode left to add
+    String mp3Link = (String) jobEntity.getProperty(TtsJob.MP3_LINK_KEY);
+    if (mp3Link == null) {
+      TtsJob.setStatus(datastore, jobKey, TtsJob.SYNTHESIZING, null, null);
+      mp3Link = TTSServlet.synthesizeEpisode(((Text) jobEntity.getProperty(TtsJob.TEXT_KEY)).getValue());
+      TtsJob.setStatus(datastore, jobKey, TtsJob.APPENDING, mp3Link, null);
+    }
+
+    // The feed may have moved to the user's Account since the job was queued
+    Entity feedEntity = FeedStore.getFeed(datastore, feedKey);
+    Item item = new Item((String) jobEntity.getProperty(TtsJob.TITLE_KEY),
+        ((Text) jobEntity.getProperty(TtsJob.DESCRIPTION_KEY)).getValue(),
+        (String) jobEntity.getProperty(TtsJob.LANGUAGE_KEY), email, mp3Link);
+    // Marks the job done along with the episode, so a retry can't add it again
+    if (FeedStore.appendItemForJob(datastore, feedEntity, item, jobKey)) {
+      UserFeedCache.changeFeed(email, feedEntity);
+    }
+  }
+
+  private static void fail(DatastoreService datastore, Key jobKey, String error) {
+    Metrics.increment(JOBS_FAILED);
+    setStatus(datastore, jobKey, TtsJob.FAILED, null, error);
+  }
+
+  private static void retry(DatastoreService datastore, Key jobKey, String error) {
+    try {
+      TtsJob.retry(datastore, jobKey, error);
+    } catch (EntityNotFoundException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static void setStatus(DatastoreService datastore, Key jobKey, String status, String mp3Link,
+      String error) {
+    try {
+      TtsJob.setStatus(datastore, jobKey, status, mp3Link, error);
+    } catch (EntityNotFoundException e) {
+      e.printStackTrace();
+    }
+  }
+}
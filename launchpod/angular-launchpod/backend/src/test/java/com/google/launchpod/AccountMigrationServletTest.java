@@ -0,0 +1,177 @@
+package com.google.launchpod;
+
+import static com.google.appengine.api.datastore.FetchOptions.Builder.withLimit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.AccountMigration;
+import com.google.launchpod.data.FeedListing;
+import com.google.launchpod.data.FeedMeta;
+import com.google.launchpod.data.FeedStore;
+import com.google.launchpod.data.Item;
+import com.google.launchpod.data.RSS;
+import com.google.launchpod.data.UserFeed;
+import com.google.launchpod.servlets.AccountMigrationServlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Runs unit tests for the AccountMigrationServlet that contains doPost() method.
+ */
+@RunWith(JUnit4.class)
+public class AccountMigrationServletTest extends Mockito {
+
+  @InjectMocks
+  private AccountMigrationServlet servlet = new AccountMigrationServlet();
+
+  @Mock
+  HttpServletRequest request;
+
+  @Mock
+  HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+      new LocalMemcacheServiceTestConfig(), new LocalUserServiceTestConfig());
+
+  private static final String USER_FEED = "UserFeed";
+  private static final String EMAIL = "email";
+  private static final String TIMESTAMP = "timestamp";
+  private static final String TITLE = "title";
+  private static final String NAME = "name";
+  private static final String DESCRIPTION = "description";
+  private static final String LANGUAGE = "language";
+
+  private static final String TEST_EMAIL = "123@google.com";
+  private static final String TEST_NAME = "John Doe";
+  private static final String TEST_TITLE = "TEST_PODCAST_TITLE";
+  private static final String TEST_DESCRIPTION = "TEST_DESCRIPTION";
+  private static final String TEST_CATEGORY = "Technology";
+  private static final String TEST_LANGUAGE = "en";
+  private static final String TEST_MP3_LINK = "http://www.gstatic.com/podcasts/test-podcast/audio/test-episode-4.mp3";
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Asserts that doPost() moves a root feed and its episodes under the owner's
+   * Account, leaving the new key on the old one.
+   */
+  @Test
+  public void doPost_MovesRootFeedsIntoAccount() throws IOException, EntityNotFoundException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost").setEnvIsAdmin(true);
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    for (int i = 0; i < 3; i++) {
+      rss.getChannel().getItems().add(new Item(TEST_TITLE + i, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    }
+    Entity entity = makeRootFeed();
+    FeedStore.createFeed(ds, entity, rss);
+    Key oldKey = entity.getKey();
+
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    servlet.doPost(request, response);
+
+    ArrayList<UserFeed> userFeeds = FeedListing.listUserFeeds(ds, TEST_EMAIL);
+    assertEquals(1, userFeeds.size());
+    Key newKey = KeyFactory.stringToKey(userFeeds.get(0).getKey());
+    assertEquals(Account.keyFor(TEST_EMAIL), newKey.getParent());
+    assertEquals(newKey, FeedStore.getMovedTo(ds.get(oldKey)));
+    assertEquals(newKey, FeedStore.getFeed(ds, oldKey).getKey());
+    assertEquals(3, ds.prepare(new Query(Item.EPISODE_KEY).setAncestor(newKey)).countEntities(withLimit(10)));
+    assertEquals(0, ds.prepare(new Query(Item.EPISODE_KEY).setAncestor(oldKey)).countEntities(withLimit(10)));
+    assertTrue(FeedStore.renderXml(ds, ds.get(newKey)).contains("<title>" + TEST_TITLE + "2</title>"));
+  }
+
+  /**
+   * Asserts that moving a feed again only copies the episodes left under the old
+   * key, so it doesn't overwrite the FeedMeta of the moved feed.
+   */
+  @Test
+  public void moveFeed_Resumed_KeepsNewFeedMeta() throws IOException, EntityNotFoundException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    rss.getChannel().getItems().add(new Item(TEST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    Entity entity = makeRootFeed();
+    FeedStore.createFeed(ds, entity, rss);
+    Key oldKey = entity.getKey();
+    Entity staleMeta = ds.get(FeedMeta.keyFor(oldKey));
+
+    Key newKey = AccountMigration.moveFeed(ds, oldKey, TEST_EMAIL);
+    FeedStore.appendItem(ds, ds.get(newKey), new Item(TEST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    // As left behind by a move that stopped before deleting the old children
+    Entity leftMeta = new Entity(staleMeta.getKey());
+    leftMeta.setPropertiesFrom(staleMeta);
+    ds.put(leftMeta);
+
+    AccountMigration.moveFeed(ds, oldKey, TEST_EMAIL);
+
+    assertEquals(2, FeedMeta.fromEntity(ds.get(FeedMeta.keyFor(newKey))).getEpisodeCount());
+  }
+
+  /**
+   * Asserts that only admins can move feeds.
+   */
+  @Test
+  public void doPost_NotAdmin_ReturnsForbidden() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost").setEnvIsAdmin(false);
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity entity = makeRootFeed();
+    ds.put(entity);
+
+    servlet.doPost(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
+    assertEquals(0, FeedListing.listUserFeeds(ds, TEST_EMAIL).size());
+  }
+
+  private static Entity makeRootFeed() {
+    Entity userFeedEntity = new Entity(USER_FEED);
+    userFeedEntity.setProperty(TITLE, TEST_TITLE);
+    userFeedEntity.setProperty(NAME, TEST_NAME);
+    userFeedEntity.setProperty(EMAIL, TEST_EMAIL);
+    userFeedEntity.setProperty(TIMESTAMP, System.currentTimeMillis());
+    userFeedEntity.setProperty(DESCRIPTION, TEST_DESCRIPTION);
+    userFeedEntity.setProperty(LANGUAGE, TEST_LANGUAGE);
+    return userFeedEntity;
+  }
+}
@@ -32,6 +32,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.launchpod.servlets.CreateByLinkServlet;
+import com.google.launchpod.data.FeedStore;
 import com.google.launchpod.data.UserFeed;
 import com.google.launchpod.data.RSS;
 import com.google.launchpod.data.Channel;
@@ -43,6 +44,7 @@ import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 
@@ -79,10 +81,11 @@ public class CreateByLinkServletTest extends Mockito {
   @Rule // JUnit 4 uses Rules for testing specific messages
   public ExpectedException thrown = ExpectedException.none();
 
-  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig());
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig(), new LocalUserServiceTestConfig());
 
   // keys
   private static final String USER_FEED = "UserFeed";
+  private static final String EPISODE = "Episode";
   private static final String PODCAST_TITLE = "podcastTitle";
   private static final String EPISODE_TITLE = "episodeTitle";
   private static final String EPISODE_DESCRIPTION = "episodeDescription";
@@ -192,7 +195,9 @@ public class CreateByLinkServletTest extends Mockito {
 
     String expectedXmlString = createModifiedXml(rss, TEST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK);
 
-    assertEquals(expectedXmlString, desiredEntity.getProperty(XML_STRING).toString());
+    // The episode is stored as a child entity and the feed is rendered from it
+    assertEquals(1, ds.prepare(new Query(EPISODE).setAncestor(desiredEntity.getKey())).countEntities(withLimit(10)));
+    assertEquals(expectedXmlString, FeedStore.renderXml(ds, desiredEntity));
   }
 
   /**
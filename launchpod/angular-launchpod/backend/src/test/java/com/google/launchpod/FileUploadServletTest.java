@@ -5,15 +5,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.beans.Transient;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.security.interfaces.DSAKey;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
 import java.util.Date;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -21,6 +25,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.launchpod.servlets.FileUploadServlet;
 import com.google.launchpod.data.RSS;
 import com.google.launchpod.data.Channel;
+import com.google.launchpod.data.FeedStore;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
@@ -31,6 +36,7 @@ import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.cloud.storage.testing.RemoteStorageHelper;
@@ -67,10 +73,11 @@ public class FileUploadServletTest extends Mockito {
   @Rule // JUnit 4 uses Rules for testing specific messages
   public ExpectedException thrown = ExpectedException.none();
 
-  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig());
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig(), new LocalUserServiceTestConfig());
 
   // Keys
   private static final String USER_FEED = "UserFeed";
+  private static final String EPISODE = "Episode";
   private static final String PODCAST_TITLE = "podcastTitle";
   private static final String EPISODE_TITLE = "episodeTitle";
   private static final String EPISODE_DESCRIPTION = "episodeDescription";
@@ -224,7 +231,8 @@ public class FileUploadServletTest extends Mockito {
 
     // Verify xml string modification
     String expectedXmlString = createModifiedXml(rss, TEST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, makeMp3Link(id));
-    assertEquals(expectedXmlString, desiredEntity.getProperty(XML_STRING).toString());
+    assertEquals(1, ds.prepare(new Query(EPISODE).setAncestor(desiredEntity.getKey())).countEntities(withLimit(10)));
+    assertEquals(expectedXmlString, FeedStore.renderXml(ds, desiredEntity));
   }
 
   /**
@@ -577,15 +585,13 @@ public class FileUploadServletTest extends Mockito {
     assertEquals(TEST_LANGUAGE, desiredEntity.getProperty(LANGUAGE).toString());
     assertEquals(TEST_EMAIL, desiredEntity.getProperty(EMAIL).toString());
 
-    StringWriter stringWriter = new StringWriter();
-    PrintWriter writer = new PrintWriter(stringWriter);
-    when(response.getWriter()).thenReturn(writer);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
 
     servlet.doGet(request, response);
 
     verify(response, times(1)).setContentType("text/xml");
-    writer.flush();
-    assertEquals(testXmlString.trim(), stringWriter.toString().trim());
+    assertEquals(testXmlString, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
   }
 
   /**
@@ -616,15 +622,13 @@ public class FileUploadServletTest extends Mockito {
     assertEquals(TEST_LANGUAGE, desiredEntity.getProperty(LANGUAGE).toString());
     assertEquals(TEST_EMAIL, desiredEntity.getProperty(EMAIL).toString());
 
-    StringWriter stringWriter = new StringWriter();
-    PrintWriter writer = new PrintWriter(stringWriter);
-    when(response.getWriter()).thenReturn(writer);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
 
     servlet.doGet(request, response);
 
     verify(response, times(1)).setContentType("text/xml");
-    writer.flush();
-    assertEquals(testXmlString.trim(), stringWriter.toString().trim());
+    assertEquals(testXmlString, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
   }
 
   /**
@@ -654,6 +658,32 @@ public class FileUploadServletTest extends Mockito {
     verify(response, times(1)).setStatus(HttpServletResponse.SC_NOT_FOUND);
   }
 
+  /**
+   * Asserts that doGet() writes the error message to the output stream when the
+   * feed is deleted after its FeedMeta was read.
+   */
+  @Test
+  public void doGet_FeedDeletedAfterMeta_WritesErrorToStream() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity entity = new Entity(USER_FEED);
+    entity.setProperty(EMAIL, TEST_EMAIL);
+    FeedStore.createFeed(ds, entity,
+        new RSS(TEST_NAME, TEST_EMAIL, TEST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE));
+    // Leaves the FeedMeta entity behind, as if the feed was deleted mid request
+    ds.delete(entity.getKey());
+
+    when(request.getParameter(ACTION)).thenReturn(GENERATE_XML);
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+    when(response.getWriter()).thenThrow(new IllegalStateException("getOutputStream() was already called"));
+
+    servlet.doGet(request, response);
+
+    assertEquals("Your entity could not be found.", new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim());
+    verify(response).setStatus(HttpServletResponse.SC_NOT_FOUND);
+  }
+
   /**
    * Asserts that doGet() returns an error message by catching an IllegalArgumentException
    * when an entity with request id cannot be converted to a key.
@@ -772,4 +802,25 @@ public class FileUploadServletTest extends Mockito {
     String expectedMessage = "Please specify action and/or id.";
     verify(response, times(1)).setStatus(HttpServletResponse.SC_BAD_REQUEST);
   }
+
+  /**
+   * Creates a servlet output stream that writes to the given bytes.
+   */
+  private static ServletOutputStream outputStreamTo(ByteArrayOutputStream bytes) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        bytes.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+    };
+  }
 }
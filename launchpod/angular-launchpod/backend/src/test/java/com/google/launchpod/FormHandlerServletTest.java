@@ -17,41 +17,67 @@ package com.google.launchpod;
 import static com.google.appengine.api.datastore.FetchOptions.Builder.withLimit;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.security.interfaces.DSAKey;
+import java.util.zip.GZIPInputStream;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import com.google.launchpod.servlets.FormHandlerServlet;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.AccountMigration;
+import com.google.launchpod.data.FeedMeta;
+import com.google.launchpod.data.FeedPage;
+import com.google.launchpod.data.FeedStore;
+import com.google.launchpod.data.Item;
 import com.google.launchpod.data.UserFeed;
+import com.google.launchpod.data.UserFeedDelta;
 import com.google.launchpod.data.RSS;
 import com.google.launchpod.data.LoginStatus;
 import com.google.launchpod.data.UserFeed;
+import com.google.launchpod.data.UserFeedDelta;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Text;
 import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
+import java.util.Collections;
+import java.util.Random;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import com.google.common.collect.Iterables;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import org.junit.Assert;
@@ -94,6 +120,9 @@ public class FormHandlerServletTest extends Mockito {
   private static final String NAME = "name";
   private static final String EMAIL = "email";
   private static final String ID = "id";
+  private static final String PAGE = "page";
+  private static final String LIMIT = "limit";
+  private static final String FEED_STORAGE_PROPERTY = "launchpod.feedStorage";
   private static final String CATEGORY = "category";
   private static final String DESCRIPTION = "description";
   private static final String LANGUAGE = "language";
@@ -112,12 +141,13 @@ public class FormHandlerServletTest extends Mockito {
   private static final String TEST_CATEGORY = "Technology";
   private static final String EMPTY_STRING = "";
   private static final String TEST_XML_STRING = "test";
+  private static final String TEST_MP3_LINK = "http://www.gstatic.com/podcasts/test-podcast/audio/test-episode-4.mp3";
   private static final String BASE_URL = "https://launchpod-step18-2020.appspot.com/rss-feed?id=";
   private static final RSS TEST_RSS_FEED = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
   private static final Gson GSON = new Gson();
   JsonParser parser = new JsonParser();
 
-  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig(), new LocalUserServiceTestConfig())
   .setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
 
   @Before
@@ -175,16 +205,17 @@ public class FormHandlerServletTest extends Mockito {
 
     String expectedXmlString = RSS.toXmlString(TEST_RSS_FEED);
 
-    assertEquals(expectedXmlString, desiredEntity.getProperty(XML_STRING).toString());
+    assertTrue(desiredEntity.getProperty(XML_STRING) instanceof Blob);
+    assertEquals(expectedXmlString, FeedStore.getXmlString(desiredEntity));
   }
 
   /**
    * Asserts that doPost() takes in form inputs from client, successfully stores
-   * that information in a Datastore entity, and returns a URL link to the
-   * generated RSS feed.
+   * that information in a Datastore entity, and returns the created feed with
+   * the version of the user's list.
    */
   @Test
-  public void doPost_ReturnsCorrectFeeds() throws IOException {
+  public void doPost_ReturnsCreatedFeed() throws IOException {
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
     UserService userService = UserServiceFactory.getUserService();
     String email = userService.getCurrentUser().getEmail();
@@ -229,7 +260,11 @@ public class FormHandlerServletTest extends Mockito {
     }
 
     verify(response).setContentType("application/json");
-    assertEquals(parser.parse(GSON.toJson(userFeeds)), parser.parse(stringWriter.toString()));
+    JsonObject delta = parser.parse(stringWriter.toString()).getAsJsonObject();
+    assertEquals(UserFeedDelta.CREATED, delta.get("change").getAsString());
+    assertEquals(userFeeds.get(0).getKey(), delta.get("key").getAsString());
+    assertEquals(parser.parse(GSON.toJson(userFeeds.get(0))), delta.get("feed"));
+    assertTrue(delta.has("version"));
   }
 
   /**
@@ -382,15 +417,13 @@ public class FormHandlerServletTest extends Mockito {
 
     when(request.getParameter(ID)).thenReturn(id);
 
-    StringWriter stringWriter = new StringWriter();
-    PrintWriter writer = new PrintWriter(stringWriter);
-    when(response.getWriter()).thenReturn(writer);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
 
     servlet.doGet(request, response);
 
     verify(response, times(1)).setContentType("text/xml");
-    writer.flush();
-    assertEquals(testXmlString, stringWriter.toString());
+    assertEquals(testXmlString, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
   }
 
   /**
@@ -415,15 +448,425 @@ public class FormHandlerServletTest extends Mockito {
 
     when(request.getParameter(ID)).thenReturn(id);
 
-    StringWriter stringWriter = new StringWriter();
-    PrintWriter writer = new PrintWriter(stringWriter);
-    when(response.getWriter()).thenReturn(writer);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
 
     servlet.doGet(request, response);
 
     verify(response, times(1)).setContentType("text/xml");
-    writer.flush();
-    assertEquals(testXmlString, stringWriter.toString());
+    assertEquals(testXmlString, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Asserts that doGet() doesn't serve a cached copy of a feed after an episode
+   * has been added to it.
+   */
+  @Test
+  public void doGet_AfterAppend_ReturnsUpdatedXmlString() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    Entity entity = makeEntity(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE, RSS.toXmlString(rss));
+    ds.put(entity);
+
+    String id = KeyFactory.keyToString(entity.getKey());
+    when(request.getParameter(ID)).thenReturn(id);
+
+    // First request renders the feed and caches it
+    when(response.getOutputStream()).thenReturn(outputStreamTo(new ByteArrayOutputStream()));
+    servlet.doGet(request, response);
+
+    Item item = new Item(TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK);
+    FeedStore.appendItem(ds, entity, item);
+    rss.getChannel().getItems().add(item);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+
+    servlet.doGet(request, response);
+
+    assertEquals(RSS.toXmlString(rss), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Asserts that an episode spliced into the stored XML of a feed kept in xml
+   * storage is read back with the rest of the feed.
+   */
+  @Test
+  public void appendItem_XmlStorage_KeepsSplicedItem() throws IOException, EntityNotFoundException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    System.setProperty(FEED_STORAGE_PROPERTY, "xml");
+    try {
+      RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+      Entity entity = new Entity(USER_FEED);
+      entity.setProperty(EMAIL, TEST_EMAIL);
+      FeedStore.createFeed(ds, entity, rss);
+
+      FeedStore.appendItem(ds, entity, new Item(TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+
+      RSS storedRss = FeedStore.loadRss(ds, ds.get(entity.getKey()));
+      assertEquals(1, storedRss.getChannel().getItems().size());
+      assertEquals(TEST_MP3_LINK, storedRss.getChannel().getItems().get(0).getLink());
+    } finally {
+      System.clearProperty(FEED_STORAGE_PROPERTY);
+    }
+  }
+
+  /**
+   * Expects that doGet() sends 304 and no XML when the request has the ETag of
+   * the current feed.
+   */
+  @Test
+  public void doGet_MatchingETag_ReturnsNotModified() throws IOException, EntityNotFoundException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    Entity entity = makeEntity(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE, RSS.toXmlString(rss));
+    ds.put(entity);
+
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+
+    // First request stores the FeedMeta of the feed
+    when(response.getOutputStream()).thenReturn(outputStreamTo(new ByteArrayOutputStream()));
+    servlet.doGet(request, response);
+    FeedMeta feedMeta = FeedMeta.fromEntity(ds.get(FeedMeta.keyFor(entity.getKey())));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+    when(request.getHeader("If-None-Match")).thenReturn(feedMeta.getETag());
+
+    servlet.doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    assertEquals(0, bytes.size());
+  }
+
+  /**
+   * Expects that doGet() sends the gzip compressed feed with its own ETag, and
+   * sends 304 when the request has that ETag.
+   */
+  @Test
+  public void doGet_AcceptsGzip_SendsGzipETag() throws IOException, EntityNotFoundException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    Entity entity = makeEntity(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE, RSS.toXmlString(rss));
+    ds.put(entity);
+
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+    when(response.getOutputStream()).thenReturn(outputStreamTo(new ByteArrayOutputStream()));
+
+    servlet.doGet(request, response);
+
+    FeedMeta feedMeta = FeedMeta.fromEntity(ds.get(FeedMeta.keyFor(entity.getKey())));
+    String eTag = feedMeta.getETag();
+    String gzipETag = eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+    verify(response).setHeader("ETag", gzipETag);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+    when(request.getHeader("If-None-Match")).thenReturn(gzipETag);
+
+    servlet.doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    assertEquals(0, bytes.size());
+  }
+
+  /**
+   * Expects that doGet() writes the gzip compressed feed when the client accepts
+   * gzip.
+   */
+  @Test
+  public void doGet_AcceptsGzip_ReturnsCompressedXmlString() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    Entity entity = makeEntity(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE, RSS.toXmlString(rss));
+    ds.put(entity);
+
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+
+    servlet.doGet(request, response);
+
+    verify(response).setHeader("Content-Encoding", "gzip");
+    GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(RSS.toXmlString(rss), new String(ByteStreams.toByteArray(gzipStream), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Expects that createFeed() stores every item of a feed with more items than
+   * one put can take.
+   */
+  @Test
+  public void createFeed_MoreThan500Items_StoresAllEpisodes() throws IOException {
+    // The local Datastore doesn't limit puts, so every batch put is checked
+    DatastoreService localDs = DatastoreServiceFactory.getDatastoreService();
+    DatastoreService ds = mock(DatastoreService.class, delegatesTo(localDs));
+    doAnswer(invocation -> {
+      Iterable<Entity> entities = invocation.getArgument(0);
+      assertTrue(Iterables.size(entities) <= 500);
+      return localDs.put(entities);
+    }).when(ds).put(anyIterable());
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    for (int i = 0; i < 600; i++) {
+      rss.getChannel().getItems().add(new Item(TEST_PODCAST_TITLE + i, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    }
+    Entity entity = new Entity(USER_FEED);
+    entity.setProperty(EMAIL, TEST_EMAIL);
+    FeedStore.createFeed(ds, entity, rss);
+
+    assertEquals(600, ds.prepare(new Query(Item.EPISODE_KEY).setAncestor(entity.getKey())).countEntities(withLimit(1000)));
+    List<Item> items = FeedStore.loadRss(ds, entity).getChannel().getItems();
+    assertEquals(600, items.size());
+    assertEquals(TEST_PODCAST_TITLE + 599, items.get(599).getTitle());
+  }
+
+  /**
+   * Expects that doGet() serves only the newest episodes of a long feed, with a
+   * link to the archive page before them, and serves full archive pages.
+   */
+  @Test
+  public void doGet_LongFeed_ReturnsCurrentAndArchivePages() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    for (int i = 0; i < 2 * FeedPage.ARCHIVE_PAGE_SIZE + 20; i++) {
+      rss.getChannel().getItems().add(new Item(TEST_PODCAST_TITLE + i, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    }
+    Entity entity = new Entity(USER_FEED);
+    entity.setProperty(EMAIL, TEST_EMAIL);
+    FeedStore.createFeed(ds, entity, rss);
+
+    String id = KeyFactory.keyToString(entity.getKey());
+    when(request.getParameter(ID)).thenReturn(id);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+
+    servlet.doGet(request, response);
+
+    String currentXml = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    assertEquals(FeedPage.DEFAULT_LIMIT, currentXml.split("<items>", -1).length - 1);
+    assertTrue(currentXml.contains("rel=\"prev-archive\" href=\"" + BASE_URL + id + "&amp;page=1\""));
+
+    bytes.reset();
+    when(request.getParameter(PAGE)).thenReturn("0");
+
+    servlet.doGet(request, response);
+
+    String archiveXml = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    assertEquals(FeedPage.ARCHIVE_PAGE_SIZE, archiveXml.split("<items>", -1).length - 1);
+    assertTrue(archiveXml.contains("<title>" + TEST_PODCAST_TITLE + "0</title>"));
+    assertTrue(archiveXml.contains("<fh:archive"));
+    assertTrue(!archiveXml.contains("prev-archive"));
+  }
+
+  /**
+   * Expects that doGet() pages the items a feed kept in its XML before episodes
+   * were stored separately, instead of repeating them on every page.
+   */
+  @Test
+  public void doGet_LegacyLongFeed_PagesXmlItems() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    for (int i = 0; i < FeedPage.ARCHIVE_PAGE_SIZE + 20; i++) {
+      rss.getChannel().getItems().add(new Item(TEST_PODCAST_TITLE + i, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    }
+    Entity entity = makeEntity(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE, TEST_XML_STRING);
+    entity.setProperty(XML_STRING, new Text(RSS.toXmlString(rss)));
+    ds.put(entity);
+
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+    when(request.getParameter(LIMIT)).thenReturn("10");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+
+    servlet.doGet(request, response);
+
+    String currentXml = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    assertEquals(20, currentXml.split("<items>", -1).length - 1);
+    assertTrue(!currentXml.contains("<title>" + TEST_PODCAST_TITLE + "0</title>"));
+    assertTrue(currentXml.contains("<title>" + TEST_PODCAST_TITLE + (FeedPage.ARCHIVE_PAGE_SIZE + 19) + "</title>"));
+
+    bytes.reset();
+    when(request.getParameter(PAGE)).thenReturn("0");
+
+    servlet.doGet(request, response);
+
+    String archiveXml = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    assertEquals(FeedPage.ARCHIVE_PAGE_SIZE, archiveXml.split("<items>", -1).length - 1);
+    assertTrue(archiveXml.contains("<title>" + TEST_PODCAST_TITLE + "0</title>"));
+  }
+
+  /**
+   * Expects that the ETag of an archive page stays the same when episodes are
+   * added to the feed.
+   */
+  @Test
+  public void doGet_ArchivePage_KeepsETagAfterAppend() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    for (int i = 0; i < FeedPage.ARCHIVE_PAGE_SIZE; i++) {
+      rss.getChannel().getItems().add(new Item(TEST_PODCAST_TITLE + i, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    }
+    Entity entity = new Entity(USER_FEED);
+    entity.setProperty(EMAIL, TEST_EMAIL);
+    FeedStore.createFeed(ds, entity, rss);
+
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+    when(request.getParameter(PAGE)).thenReturn("0");
+    when(response.getOutputStream()).thenReturn(outputStreamTo(new ByteArrayOutputStream()));
+
+    servlet.doGet(request, response);
+
+    FeedStore.appendItem(ds, entity, new Item(TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+    when(request.getHeader("If-None-Match")).thenReturn("\"archive0\"");
+
+    servlet.doGet(request, response);
+
+    verify(response, times(2)).setHeader("ETag", "\"archive0\"");
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    assertEquals(0, bytes.size());
+  }
+
+  /**
+   * Expects that doGet() sends 400 for a page that is not a number.
+   */
+  @Test
+  public void doGet_PageNotANumber_ReturnsBadRequest() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    Entity entity = new Entity(USER_FEED);
+    entity.setProperty(EMAIL, TEST_EMAIL);
+    FeedStore.createFeed(ds, entity, TEST_RSS_FEED);
+
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+    when(request.getParameter(PAGE)).thenReturn("first");
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    servlet.doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+  }
+
+  /**
+   * Expects that doGet() returns a feed that was too big for a single entity,
+   * and so was stored in chunks.
+   */
+  @Test
+  public void doGet_FeedOverEntityLimit_ReturnsChunkedXmlString() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    System.setProperty(FEED_STORAGE_PROPERTY, "xml");
+    try {
+      // Random descriptions barely compress, so the stored feed stays over the limit
+      Random random = new Random(0);
+      RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+      for (int i = 0; i < 100; i++) {
+        byte[] description = new byte[20 * 1000];
+        random.nextBytes(description);
+        rss.getChannel().getItems().add(new Item(TEST_PODCAST_TITLE, BaseEncoding.base64().encode(description),
+            TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+      }
+      Entity entity = new Entity(FeedStore.allocateFeedKey(ds, Account.keyFor(TEST_EMAIL)));
+      entity.setProperty(EMAIL, TEST_EMAIL);
+      FeedStore.createFeed(ds, entity, rss);
+
+      assertTrue(ds.prepare(new Query(FeedStore.FEED_CHUNK_KEY)).countEntities(withLimit(10)) > 1);
+
+      when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+
+      servlet.doGet(request, response);
+
+      assertEquals(RSS.toXmlString(rss), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    } finally {
+      System.clearProperty(FEED_STORAGE_PROPERTY);
+    }
+  }
+
+  /**
+   * Expects that the chunks of a feed's XML are deleted once its XML fits on the
+   * feed entity again, here after its items are moved into Episode entities.
+   */
+  @Test
+  public void doGet_ChunkedFeedShrinks_DeletesChunks() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Random random = new Random(0);
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    for (int i = 0; i < 100; i++) {
+      byte[] description = new byte[20 * 1000];
+      random.nextBytes(description);
+      rss.getChannel().getItems().add(new Item(TEST_PODCAST_TITLE, BaseEncoding.base64().encode(description),
+          TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    }
+    Entity entity = new Entity(FeedStore.allocateFeedKey(ds, Account.keyFor(TEST_EMAIL)));
+    entity.setProperty(EMAIL, TEST_EMAIL);
+    System.setProperty(FEED_STORAGE_PROPERTY, "xml");
+    try {
+      FeedStore.createFeed(ds, entity, rss);
+    } finally {
+      System.clearProperty(FEED_STORAGE_PROPERTY);
+    }
+    // As if the feed was stored before it had FeedMeta
+    ds.delete(FeedMeta.keyFor(entity.getKey()));
+    assertTrue(ds.prepare(new Query(FeedStore.FEED_CHUNK_KEY)).countEntities(withLimit(10)) > 1);
+
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+    when(response.getOutputStream()).thenReturn(outputStreamTo(new ByteArrayOutputStream()));
+
+    servlet.doGet(request, response);
+
+    assertEquals(0, ds.prepare(new Query(FeedStore.FEED_CHUNK_KEY)).countEntities(withLimit(10)));
+    assertEquals(100, ds.prepare(new Query(Item.EPISODE_KEY)).countEntities(withLimit(1000)));
+  }
+
+  /**
+   * Expects that doGet() permanently redirects a link made before the feed moved
+   * into its owner's Account to the feed's new key, which serves the feed.
+   */
+  @Test
+  public void doGet_MovedFeed_RedirectsToNewKey() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    RSS rss = new RSS(TEST_NAME, TEST_EMAIL, TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE);
+    rss.getChannel().getItems().add(new Item(TEST_PODCAST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK));
+    Entity entity = new Entity(USER_FEED);
+    entity.setProperty(EMAIL, TEST_EMAIL);
+    FeedStore.createFeed(ds, entity, rss);
+    String oldId = KeyFactory.keyToString(entity.getKey());
+    String newId = KeyFactory.keyToString(AccountMigration.moveFeed(ds, entity.getKey(), TEST_EMAIL));
+
+    when(request.getParameter(ID)).thenReturn(oldId);
+    when(request.getRequestURL()).thenReturn(new StringBuffer("https://launchpod-step18-2020.appspot.com/rss-feed"));
+    when(request.getParameterMap()).thenReturn(Collections.singletonMap(ID, new String[] { oldId }));
+
+    servlet.doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_MOVED_PERMANENTLY);
+    verify(response).setHeader("Location", BASE_URL + newId);
+
+    when(request.getParameter(ID)).thenReturn(newId);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+
+    servlet.doGet(request, response);
+
+    String xml = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    assertEquals(1, xml.split("<items>", -1).length - 1);
+    assertTrue(xml.contains("<title>" + TEST_PODCAST_TITLE + "</title>"));
   }
 
   /**
@@ -453,6 +896,30 @@ public class FormHandlerServletTest extends Mockito {
     assertEquals("<p>Sorry. This is not a valid link.</p>", stringWriter.toString());
   }
 
+  /**
+   * Expects that doGet() writes the error message to the output stream when the
+   * feed is deleted after its FeedMeta was read.
+   */
+  @Test
+  public void doGet_FeedDeletedAfterMeta_WritesErrorToStream() throws IOException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    Entity entity = new Entity(USER_FEED);
+    entity.setProperty(EMAIL, TEST_EMAIL);
+    FeedStore.createFeed(ds, entity, TEST_RSS_FEED);
+    // Leaves the FeedMeta entity behind, as if the feed was deleted mid request
+    ds.delete(entity.getKey());
+
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(entity.getKey()));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStreamTo(bytes));
+    when(response.getWriter()).thenThrow(new IllegalStateException("getOutputStream() was already called"));
+
+    servlet.doGet(request, response);
+
+    assertEquals("<p>Sorry. This is not a valid link.</p>", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+  }
+
   /**
    * Expects doGet() to throw an error message when there are no entities in
    * Datastore period. TO-DO: add this test to testing file for LoginServlet (MVP)
@@ -468,4 +935,25 @@ public class FormHandlerServletTest extends Mockito {
     thrown.expectMessage("Sorry, no matching Id was found in Datastore.");
     servlet.doGet(request, response);
   }
+
+  /**
+   * Creates a servlet output stream that writes to the given bytes.
+   */
+  private static ServletOutputStream outputStreamTo(ByteArrayOutputStream bytes) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        bytes.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+    };
+  }
 }
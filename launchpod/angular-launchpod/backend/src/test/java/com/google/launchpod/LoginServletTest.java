@@ -16,6 +16,7 @@ package com.google.launchpod;
 
 import static com.google.appengine.api.datastore.FetchOptions.Builder.withLimit;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -40,15 +41,23 @@ import com.google.gson.Gson;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import com.google.gson.JsonParser;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.FeedListing;
+import com.google.launchpod.data.FeedStore;
 import com.google.launchpod.data.LoginStatus;
+import com.google.launchpod.data.Metrics;
 import com.google.launchpod.data.UserFeed;
+import com.google.launchpod.data.UserFeedCache;
+import com.google.launchpod.data.UserFeedDelta;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import com.google.launchpod.servlets.LoginServlet;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 
@@ -83,7 +92,7 @@ public class LoginServletTest extends Mockito {
   @Rule // JUnit 4 uses Rules for testing specific messages
   public ExpectedException thrown = ExpectedException.none();
 
-  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig());
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig(), new LocalUserServiceTestConfig());
 
   private static final Gson GSON = new Gson();
   JsonParser parser = new JsonParser();
@@ -91,9 +100,12 @@ public class LoginServletTest extends Mockito {
   private static final String EMAIL = "email";
 
   private static final String TEST_EMAIL = "123@google.com";
+  private static final String TEST_OTHER_EMAIL = "456@google.com";
 
   private static final String BASE_URL = "https://launchpod-step18-2020.appspot.com/rss-feed?id=";
 
+  private static final String KEY_ID = "keyId";
+
   @Before
   public void setUp() {
     MockitoAnnotations.initMocks(this);
@@ -148,14 +160,15 @@ public class LoginServletTest extends Mockito {
   }
 
   /**
-   * Asserts that doGet() gets the user's feeds and successfully sends
-   * a corresponding loginStatus object as the response.
+   * Asserts that doGet() sends only the login status, which the browser may
+   * cache for the current login, without reading the user's feeds.
    */
   @Test
-  public void doGet_GetsCorrectFeedsLoggedIn() throws IOException {
+  public void doGet_LoggedIn_SendsStatusWithoutFeeds() throws IOException {
     helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
-    UserService userService = UserServiceFactory.getUserService();
+    ds.put(makeUserFeed("Feed", System.currentTimeMillis()));
+    long listings = Metrics.get(FeedListing.LISTINGS);
 
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
@@ -163,38 +176,124 @@ public class LoginServletTest extends Mockito {
 
     servlet.doGet(request, response);
 
-    String urlToRedirectToAfterUserLogsOut = "/index.html";
-    String logoutUrl = userService.createLogoutURL(urlToRedirectToAfterUserLogsOut);
-    String loginMessage = "<p>Logged in as " + TEST_EMAIL + ". <a href=\"" + logoutUrl + "\">Logout</a>.</p>";
+    writer.flush();
+    verify(response).setHeader("Cache-Control", "private, max-age=60");
+    verify(response).setHeader("Vary", "Cookie");
+    assertFalse(parser.parse(stringWriter.toString()).getAsJsonObject().has("feeds"));
+    assertEquals(listings, Metrics.get(FeedListing.LISTINGS));
+  }
+
+  /**
+   * Asserts that doPost() deletes the feed, sends back the key of the deleted
+   * feed, and removes it from the cached list.
+   */
+  @Test
+  public void doPost_DeletesFeedFromCachedList() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Key keptKey = ds.put(makeUserFeed("Kept feed", System.currentTimeMillis()));
+    Key deletedKey = ds.put(makeUserFeed("Deleted feed", System.currentTimeMillis() + 1));
+
+    // Load the list into the cache
+    assertEquals(2, UserFeedCache.getFirstPage(ds, TEST_EMAIL, 10).size());
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+    when(request.getParameter(KEY_ID)).thenReturn(KeyFactory.keyToString(deletedKey));
+    servlet.doPost(request, response);
+    writer.flush();
+
+    UserFeedDelta delta = GSON.fromJson(stringWriter.toString(), UserFeedDelta.class);
+    assertEquals(UserFeedDelta.DELETED, delta.getChange());
+    assertEquals(KeyFactory.keyToString(deletedKey), delta.getKey());
+
+    // The next read comes from the updated cache
+    List<UserFeed> cachedFeeds = UserFeedCache.getFirstPage(ds, TEST_EMAIL, 10);
+    assertEquals(1, cachedFeeds.size());
+    assertEquals(KeyFactory.keyToString(keptKey), cachedFeeds.get(0).getKey());
+
+    // Each change to the list gets the next version
+    assertEquals(delta.getVersion() + 1, UserFeedCache.removeFeed(TEST_EMAIL, keptKey).getVersion());
+  }
+
+  /**
+   * Asserts that doPost() with a key from before the feed moved into its Account
+   * deletes the moved feed and sends back its new key.
+   */
+  @Test
+  public void doPost_MovedFeed_DeletesFeedUnderNewKey() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Key newKey = ds.put(makeUserFeed("Moved feed", System.currentTimeMillis()));
+    Entity movedEntity = new Entity(LoginStatus.USER_FEED_KEY);
+    movedEntity.setProperty(FeedStore.MOVED_TO, newKey);
+    Key oldKey = ds.put(movedEntity);
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+    when(request.getParameter(KEY_ID)).thenReturn(KeyFactory.keyToString(oldKey));
+    servlet.doPost(request, response);
+    writer.flush();
+
+    UserFeedDelta delta = GSON.fromJson(stringWriter.toString(), UserFeedDelta.class);
+    assertEquals(KeyFactory.keyToString(newKey), delta.getKey());
+    assertEquals(0, ds.prepare(new Query(LoginStatus.USER_FEED_KEY)).countEntities(withLimit(10)));
+  }
 
-    Query query =
-        new Query(LoginStatus.USER_FEED_KEY).setFilter(new FilterPredicate("email", FilterOperator.EQUAL, TEST_EMAIL)).addSort(LoginStatus.TIMESTAMP_KEY, SortDirection.DESCENDING);
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-
-    ArrayList<UserFeed> userFeeds = new ArrayList<UserFeed>();
-    for (Entity entity : results.asIterable()) {
-      String userFeedEmail = String.valueOf(entity.getProperty(LoginStatus.EMAIL_KEY));
-      String title = (String) entity.getProperty(LoginStatus.TITLE_KEY);
-      String name = (String) entity.getProperty(LoginStatus.NAME_KEY);
-      String description = (String) entity.getProperty(LoginStatus.DESCRIPTION_KEY);
-      String email = (String) entity.getProperty(LoginStatus.EMAIL_KEY);
-      String language = (String) entity.getProperty(LoginStatus.LANGUAGE_KEY);
-      long timestamp = (long) entity.getProperty(LoginStatus.TIMESTAMP_KEY);
-      Date date = new Date(timestamp);
-      SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy  HH:mm:ss");
-      String postTime = dateFormat.format(date);
-      Key key = entity.getKey();
-      
-      String urlID = KeyFactory.keyToString(entity.getKey()); // the key string associated with the entity, not the numeric ID.
-      String rssLink = BASE_URL + urlID;
-
-      userFeeds.add(new UserFeed(title, name, rssLink, description, email, postTime, urlID, language));
+  /**
+   * Asserts that doPost() deletes nothing of another user's feed, root or moved
+   * into their Account.
+   */
+  @Test
+  public void doPost_OtherUsersFeed_ReturnsNotFound() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_OTHER_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Key accountFeedKey = ds.put(makeUserFeed("Account feed", System.currentTimeMillis()));
+    Entity rootEntity = new Entity(LoginStatus.USER_FEED_KEY);
+    rootEntity.setPropertiesFrom(makeUserFeed("Root feed", System.currentTimeMillis()));
+    Key rootFeedKey = ds.put(rootEntity);
+    Entity movedEntity = new Entity(LoginStatus.USER_FEED_KEY);
+    movedEntity.setProperty(FeedStore.MOVED_TO, accountFeedKey);
+    Key movedKey = ds.put(movedEntity);
+
+    for (Key key : new Key[] {accountFeedKey, rootFeedKey, movedKey}) {
+      when(request.getParameter(KEY_ID)).thenReturn(KeyFactory.keyToString(key));
+      servlet.doPost(request, response);
     }
 
-    verify(response).setContentType("application/json");
-    assertEquals(userFeeds, GSON.fromJson(stringWriter.toString(), LoginStatus.class).feeds);
+    verify(response, times(3)).sendError(eq(HttpServletResponse.SC_NOT_FOUND), anyString());
+    assertEquals(3, ds.prepare(new Query(LoginStatus.USER_FEED_KEY)).countEntities(withLimit(10)));
+  }
+
+  /**
+   * Asserts that doPost() doesn't delete an Account, or anything under it, for
+   * a key that isn't the key of a feed.
+   */
+  @Test
+  public void doPost_AccountKey_ReturnsNotFound() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    ds.put(makeUserFeed("Feed", System.currentTimeMillis()));
+    when(request.getParameter(KEY_ID)).thenReturn(KeyFactory.keyToString(Account.keyFor(TEST_EMAIL)));
+
+    servlet.doPost(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_NOT_FOUND), anyString());
+    assertEquals(1, ds.prepare(new Query(LoginStatus.USER_FEED_KEY)).countEntities(withLimit(10)));
+  }
+
+  /**
+   * Asserts that doPost() deletes nothing for a user who isn't logged in.
+   */
+  @Test
+  public void doPost_LoggedOut_ReturnsUnauthorized() throws IOException {
+    helper.setEnvIsLoggedIn(false);
+
+    servlet.doPost(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_UNAUTHORIZED), anyString());
   }
 
   /**
@@ -237,4 +336,15 @@ public class LoginServletTest extends Mockito {
     verify(response).setContentType("application/json");
     assertEquals(loginMessage, GSON.fromJson(stringWriter.toString(), LoginStatus.class).message);
   }
+
+  private static Entity makeUserFeed(String title, long timestamp) {
+    Entity userFeedEntity = new Entity(LoginStatus.USER_FEED_KEY, Account.keyFor(TEST_EMAIL));
+    userFeedEntity.setProperty(LoginStatus.TITLE_KEY, title);
+    userFeedEntity.setProperty(LoginStatus.NAME_KEY, "John Doe");
+    userFeedEntity.setProperty(LoginStatus.EMAIL_KEY, TEST_EMAIL);
+    userFeedEntity.setProperty(LoginStatus.TIMESTAMP_KEY, timestamp);
+    userFeedEntity.setProperty(LoginStatus.DESCRIPTION_KEY, "TEST_DESCRIPTION");
+    userFeedEntity.setProperty(LoginStatus.LANGUAGE_KEY, "en");
+    return userFeedEntity;
+  }
 }
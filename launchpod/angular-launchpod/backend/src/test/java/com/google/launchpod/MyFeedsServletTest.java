@@ -0,0 +1,254 @@
+package com.google.launchpod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.FeedListing;
+import com.google.launchpod.data.Metrics;
+import com.google.launchpod.data.UserFeedCache;
+import com.google.launchpod.servlets.MyFeedsServlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Runs unit tests for the MyFeedsServlet that contains doGet() method.
+ */
+@RunWith(JUnit4.class)
+public class MyFeedsServletTest extends Mockito {
+
+  @InjectMocks
+  private MyFeedsServlet servlet = new MyFeedsServlet();
+
+  @Mock
+  HttpServletRequest request;
+
+  @Mock
+  HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+      new LocalMemcacheServiceTestConfig(), new LocalUserServiceTestConfig());
+
+  private final JsonParser parser = new JsonParser();
+
+  private static final String USER_FEED = "UserFeed";
+  private static final String TITLE = "title";
+  private static final String NAME = "name";
+  private static final String EMAIL = "email";
+  private static final String TIMESTAMP = "timestamp";
+  private static final String DESCRIPTION = "description";
+  private static final String LANGUAGE = "language";
+  private static final String LIMIT = "limit";
+  private static final String CURSOR = "cursor";
+  private static final String FEEDS = "feeds";
+  private static final String NEXT_CURSOR = "nextCursor";
+  private static final String VERSION = "version";
+
+  private static final String TEST_EMAIL = "123@google.com";
+  private static final String TEST_OTHER_EMAIL = "456@google.com";
+  private static final String TEST_NAME = "John Doe";
+  private static final String TEST_DESCRIPTION = "TEST_DESCRIPTION";
+  private static final String TEST_LANGUAGE = "en";
+  private static final long TEST_TIMESTAMP = 1593000000000L;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Asserts that doGet() pages through the user's feeds, newest first, and
+   * leaves out the feeds of other users.
+   */
+  @Test
+  public void doGet_PagesThroughUserFeeds() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (int i = 0; i < 5; i++) {
+      datastore.put(makeUserFeed("Feed " + i, TEST_EMAIL, TEST_TIMESTAMP + i));
+    }
+    datastore.put(makeUserFeed("Other feed", TEST_OTHER_EMAIL, TEST_TIMESTAMP + 10));
+
+    ArrayList<String> titles = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      JsonObject page = getPage("2", cursor);
+      for (JsonElement userFeed : page.getAsJsonArray(FEEDS)) {
+        titles.add(userFeed.getAsJsonObject().get(TITLE).getAsString());
+      }
+      cursor = page.has(NEXT_CURSOR) ? page.get(NEXT_CURSOR).getAsString() : null;
+      pages++;
+    } while (cursor != null);
+
+    assertEquals(3, pages);
+    ArrayList<String> expected = new ArrayList<>();
+    for (int i = 4; i >= 0; i--) {
+      expected.add("Feed " + i);
+    }
+    assertEquals(expected, titles);
+  }
+
+  /**
+   * Asserts that doGet() sends the last page without a cursor when the feeds
+   * fit on one page.
+   */
+  @Test
+  public void doGet_FewFeeds_ReturnsSinglePage() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(makeUserFeed("Feed", TEST_EMAIL, TEST_TIMESTAMP));
+
+    JsonObject page = getPage(null, null);
+
+    assertEquals(1, page.getAsJsonArray(FEEDS).size());
+    assertFalse(page.has(NEXT_CURSOR));
+  }
+
+  /**
+   * Asserts that doGet() sends the version of the list, so the next change to it
+   * is the one after that version.
+   */
+  @Test
+  public void doGet_SendsVersionBeforeNextChange() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(makeUserFeed("Feed", TEST_EMAIL, TEST_TIMESTAMP));
+    UserFeedCache.removeFeed(TEST_EMAIL, KeyFactory.createKey(USER_FEED, 1));
+
+    long version = getPage(null, null).get(VERSION).getAsLong();
+    long nextVersion = UserFeedCache.removeFeed(TEST_EMAIL, KeyFactory.createKey(USER_FEED, 1)).getVersion();
+
+    assertEquals(version + 1, nextVersion);
+  }
+
+  /**
+   * Asserts that doGet() serves a first page with all of the user's feeds from
+   * the cache, including changes made to the cached list, without a listing
+   * query.
+   */
+  @Test
+  public void doGet_FewFeeds_ServesFirstPageFromCache() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(makeUserFeed("Old feed", TEST_EMAIL, TEST_TIMESTAMP));
+    getPage(null, null);
+
+    Entity newFeed = makeUserFeed("New feed", TEST_EMAIL, TEST_TIMESTAMP + 1);
+    datastore.put(newFeed);
+    UserFeedCache.addFeed(TEST_EMAIL, newFeed);
+    long listings = Metrics.get(FeedListing.LISTINGS);
+    JsonObject page = getPage(null, null);
+
+    assertEquals(listings, Metrics.get(FeedListing.LISTINGS));
+    JsonArray feeds = page.getAsJsonArray(FEEDS);
+    assertEquals(2, feeds.size());
+    assertEquals("New feed", feeds.get(0).getAsJsonObject().get(TITLE).getAsString());
+    assertFalse(page.has(NEXT_CURSOR));
+  }
+
+  /**
+   * Asserts that doGet() pages through the feeds with a query when they don't
+   * fit on the first page, even once the list is cached.
+   */
+  @Test
+  public void doGet_MoreFeedsThanLimit_QueriesFirstPage() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (int i = 0; i < 3; i++) {
+      datastore.put(makeUserFeed("Feed " + i, TEST_EMAIL, TEST_TIMESTAMP + i));
+    }
+    getPage("2", null);
+
+    JsonObject page = getPage("2", null);
+
+    assertEquals(2, page.getAsJsonArray(FEEDS).size());
+    assertTrue(page.has(NEXT_CURSOR));
+  }
+
+  /**
+   * Asserts that doGet() rejects a cursor it did not create.
+   */
+  @Test
+  public void doGet_InvalidCursor_ReturnsBadRequest() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    when(request.getParameter(CURSOR)).thenReturn("not a cursor");
+
+    servlet.doGet(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+  }
+
+  /**
+   * Asserts that doGet() asks the user to log in first.
+   */
+  @Test
+  public void doGet_LoggedOut_ReturnsUnauthorized() throws IOException {
+    helper.setEnvIsLoggedIn(false);
+
+    servlet.doGet(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_UNAUTHORIZED), anyString());
+  }
+
+  private JsonObject getPage(String limit, String cursor) throws IOException {
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    reset(request, response);
+    when(response.getWriter()).thenReturn(writer);
+    when(request.getParameter(LIMIT)).thenReturn(limit);
+    when(request.getParameter(CURSOR)).thenReturn(cursor);
+
+    servlet.doGet(request, response);
+
+    writer.flush();
+    verify(response).setContentType("application/json");
+    return parser.parse(stringWriter.toString()).getAsJsonObject();
+  }
+
+  private static Entity makeUserFeed(String title, String email, long timestamp) {
+    Entity userFeedEntity = new Entity(USER_FEED, Account.keyFor(email));
+    userFeedEntity.setProperty(TITLE, title);
+    userFeedEntity.setProperty(NAME, TEST_NAME);
+    userFeedEntity.setProperty(EMAIL, email);
+    userFeedEntity.setProperty(TIMESTAMP, timestamp);
+    userFeedEntity.setProperty(DESCRIPTION, TEST_DESCRIPTION);
+    userFeedEntity.setProperty(LANGUAGE, TEST_LANGUAGE);
+    return userFeedEntity;
+  }
+}
@@ -0,0 +1,134 @@
+package com.google.launchpod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.launchpod.servlets.SpeechChunker;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs unit tests for the SpeechChunker that splits text for Text-to-Speech
+ * requests.
+ */
+@RunWith(JUnit4.class)
+public class SpeechChunkerTest {
+
+  // Bytes of text allowed in one Text-to-Speech request
+  private static final int MAX_REQUEST_BYTES = 5000;
+
+  /**
+   * Asserts that split() keeps text that fits in one request whole.
+   */
+  @Test
+  public void split_ShortText_ReturnsOneChunk() {
+    String text = "Hello there. How are you?\n\nThis is a new paragraph.";
+
+    assertEquals(Collections.singletonList(text), SpeechChunker.split(text, Locale.US, MAX_REQUEST_BYTES));
+  }
+
+  /**
+   * Asserts that split() gives no chunks for blank text.
+   */
+  @Test
+  public void split_BlankText_ReturnsNoChunks() {
+    assertEquals(Collections.emptyList(), SpeechChunker.split("  \n\n  \n", Locale.US, MAX_REQUEST_BYTES));
+  }
+
+  /**
+   * Asserts that split() ends chunks between paragraphs.
+   */
+  @Test
+  public void split_Paragraphs_SplitsBetweenParagraphs() {
+    List<String> chunks = SpeechChunker.split("First one.\n\nSecond one.", Locale.US, 15);
+
+    assertEquals(Arrays.asList("First one.", "Second one."), chunks);
+  }
+
+  /**
+   * Asserts that split() fills a chunk with whole sentences up to the limit.
+   */
+  @Test
+  public void split_Sentences_SplitsBetweenSentences() {
+    List<String> chunks = SpeechChunker.split("One two. Three four. Five six.", Locale.US, 20);
+
+    assertEquals(Arrays.asList("One two. Three four.", "Five six."), chunks);
+  }
+
+  /**
+   * Asserts that split() splits a sentence too long for one request between
+   * words.
+   */
+  @Test
+  public void split_LongSentence_SplitsBetweenWords() {
+    List<String> chunks = SpeechChunker.split("alpha beta gamma delta.", Locale.US, 11);
+
+    assertEquals(Arrays.asList("alpha beta", "gamma", "delta."), chunks);
+  }
+
+  /**
+   * Asserts that split() splits a word too long for one request anywhere.
+   */
+  @Test
+  public void split_LongWord_SplitsBetweenCodePoints() {
+    List<String> chunks = SpeechChunker.split("abcdefghij", Locale.US, 4);
+
+    assertEquals(Arrays.asList("abcd", "efgh", "ij"), chunks);
+  }
+
+  /**
+   * Asserts that split() counts the limit in UTF-8 bytes and never splits a
+   * character, even one made of two chars.
+   */
+  @Test
+  public void split_MultibyteWord_KeepsCharactersWhole() {
+    StringBuilder word = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      word.append("é🎙");
+    }
+
+    List<String> chunks = SpeechChunker.split(word.toString(), Locale.US, MAX_REQUEST_BYTES);
+
+    assertEquals(3, chunks.size());
+    for (String chunk : chunks) {
+      assertTrue(bytes(chunk) <= MAX_REQUEST_BYTES);
+      assertEquals(chunk, new String(chunk.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+    }
+    assertEquals(word.toString(), String.join("", chunks));
+  }
+
+  /**
+   * Asserts that split() keeps every chunk of a long multibyte text within the
+   * request limit, and keeps all of the text in order.
+   */
+  @Test
+  public void split_LongMultibyteText_StaysWithinLimit() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("Ça va très bien, merci ").append(i).append(". ");
+      if (i % 50 == 49) {
+        text.append("\n\n");
+      }
+    }
+
+    List<String> chunks = SpeechChunker.split(text.toString(), Locale.US, MAX_REQUEST_BYTES);
+
+    assertTrue(chunks.size() > 1);
+    for (String chunk : chunks) {
+      assertTrue(bytes(chunk) <= MAX_REQUEST_BYTES);
+    }
+    assertEquals(text.toString().replaceAll("\\s+", ""), String.join("", chunks).replaceAll("\\s+", ""));
+  }
+
+  private static int bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8).length;
+  }
+}
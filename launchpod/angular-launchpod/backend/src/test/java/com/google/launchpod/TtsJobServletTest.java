@@ -0,0 +1,133 @@
+package com.google.launchpod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.TtsJob;
+import com.google.launchpod.servlets.TtsJobServlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Runs unit tests for the TtsJobServlet that contains doGet() method.
+ */
+@RunWith(JUnit4.class)
+public class TtsJobServletTest extends Mockito {
+
+  @InjectMocks
+  private TtsJobServlet servlet = new TtsJobServlet();
+
+  @Mock
+  HttpServletRequest request;
+
+  @Mock
+  HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+      new LocalUserServiceTestConfig());
+
+  private final JsonParser parser = new JsonParser();
+
+  private static final String ID = "id";
+  private static final String TEST_EMAIL = "123@google.com";
+  private static final String TEST_OTHER_EMAIL = "456@google.com";
+  private static final String TEST_MP3_LINK = "https://launchpod-step18-2020.appspot.com/create-by-tts?id=tts-abc";
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Asserts that doGet() sends the status of the user's job, with the link to
+   * the audio once it is done and without the text.
+   */
+  @Test
+  public void doGet_SendsJobStatus() throws IOException, EntityNotFoundException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity jobEntity = makeJob(TEST_EMAIL);
+    datastore.put(jobEntity);
+    TtsJob.setStatus(datastore, jobEntity.getKey(), TtsJob.DONE, TEST_MP3_LINK, null);
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(jobEntity.getKey()));
+
+    servlet.doGet(request, response);
+
+    writer.flush();
+    verify(response).setContentType("application/json");
+    JsonObject job = parser.parse(stringWriter.toString()).getAsJsonObject();
+    assertEquals(TtsJob.DONE, job.get("status").getAsString());
+    assertEquals(TEST_MP3_LINK, job.get("mp3Link").getAsString());
+    assertFalse(job.has("text"));
+  }
+
+  /**
+   * Asserts that doGet() doesn't show a user the jobs of other users.
+   */
+  @Test
+  public void doGet_OtherUsersJob_ReturnsNotFound() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity jobEntity = makeJob(TEST_OTHER_EMAIL);
+    datastore.put(jobEntity);
+    when(request.getParameter(ID)).thenReturn(KeyFactory.keyToString(jobEntity.getKey()));
+
+    servlet.doGet(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_NOT_FOUND), anyString());
+  }
+
+  /**
+   * Asserts that doGet() rejects an id that isn't a key.
+   */
+  @Test
+  public void doGet_InvalidId_ReturnsBadRequest() throws IOException {
+    helper.setEnvIsLoggedIn(true).setEnvEmail(TEST_EMAIL).setEnvAuthDomain("localhost");
+    when(request.getParameter(ID)).thenReturn("not a key");
+
+    servlet.doGet(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+  }
+
+  private static Entity makeJob(String email) {
+    return TtsJob.newEntity(email, KeyFactory.createKey(Account.keyFor(email), "UserFeed", 1), "TEST_TITLE",
+        "TEST_DESCRIPTION", "en", "Some text to read.");
+  }
+}
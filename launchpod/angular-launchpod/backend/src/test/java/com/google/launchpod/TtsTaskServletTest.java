@@ -0,0 +1,209 @@
+package com.google.launchpod;
+
+import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.launchpod.data.Account;
+import com.google.launchpod.data.FeedStore;
+import com.google.launchpod.data.Item;
+import com.google.launchpod.data.RSS;
+import com.google.launchpod.data.TtsJob;
+import com.google.launchpod.servlets.TtsTaskServlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Runs unit tests for the TtsTaskServlet that contains doPost() method.
+ */
+@RunWith(JUnit4.class)
+public class TtsTaskServletTest extends Mockito {
+
+  @InjectMocks
+  private TtsTaskServlet servlet = new TtsTaskServlet();
+
+  @Mock
+  HttpServletRequest request;
+
+  @Mock
+  HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+      new LocalMemcacheServiceTestConfig());
+
+  private static final String USER_FEED = "UserFeed";
+  private static final String EMAIL = "email";
+  private static final String TITLE = "title";
+  private static final String TIMESTAMP = "timestamp";
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+  private static final String RETRY_COUNT_HEADER = "X-AppEngine-TaskRetryCount";
+
+  private static final String TEST_EMAIL = "123@google.com";
+  private static final String TEST_NAME = "John Doe";
+  private static final String TEST_TITLE = "TEST_TITLE";
+  private static final String TEST_DESCRIPTION = "TEST_DESCRIPTION";
+  private static final String TEST_CATEGORY = "Technology";
+  private static final String TEST_LANGUAGE = "en";
+  private static final long TEST_TIMESTAMP = 1593000000000L;
+  private static final String TEST_MP3_LINK = "https://launchpod-step18-2020.appspot.com/create-by-tts?id=tts-abc";
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Asserts that doPost() only runs jobs for the task queue.
+   */
+  @Test
+  public void doPost_NotFromQueue_ReturnsForbidden() throws IOException {
+    servlet.doPost(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
+  }
+
+  /**
+   * Asserts that doPost() adds the episode of a job whose audio is stored
+   * without synthesizing it again, and that a retry of the task after the job
+   * is done doesn't add the episode twice.
+   */
+  @Test
+  public void doPost_AudioStored_AddsEpisodeOnce() throws IOException, EntityNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key feedKey = makeFeed(datastore);
+    Key jobKey = makeJob(datastore, feedKey);
+    TtsJob.setStatus(datastore, jobKey, TtsJob.APPENDING, TEST_MP3_LINK, null);
+    when(request.getHeader(QUEUE_NAME_HEADER)).thenReturn("default");
+    when(request.getParameter(TtsTaskServlet.JOB_ID)).thenReturn(KeyFactory.keyToString(jobKey));
+
+    servlet.doPost(request, response);
+    when(request.getHeader(RETRY_COUNT_HEADER)).thenReturn("1");
+    servlet.doPost(request, response);
+
+    verify(response, never()).sendError(anyInt(), anyString());
+    assertEquals(1, countEpisodes(datastore, feedKey));
+    TtsJob job = TtsJob.fromEntity(datastore.get(jobKey));
+    assertEquals(TtsJob.DONE, job.getStatus());
+    assertEquals(TEST_MP3_LINK, job.getMp3Link());
+  }
+
+  /**
+   * Asserts that the episode of a job is added only once, even by a task that
+   * read the job before another one finished it.
+   */
+  @Test
+  public void appendItemForJob_JobDone_AddsNothing() throws IOException, EntityNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key feedKey = makeFeed(datastore);
+    Key jobKey = makeJob(datastore, feedKey);
+    Entity feedEntity = datastore.get(feedKey);
+    Item item = new Item(TEST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE, TEST_EMAIL, TEST_MP3_LINK);
+
+    assertTrue(FeedStore.appendItemForJob(datastore, feedEntity, item, jobKey));
+    assertFalse(FeedStore.appendItemForJob(datastore, feedEntity, item, jobKey));
+
+    assertEquals(1, countEpisodes(datastore, feedKey));
+    assertEquals(TtsJob.DONE, TtsJob.fromEntity(datastore.get(jobKey)).getStatus());
+  }
+
+  /**
+   * Asserts that a job that is done stays done when a failing retry tries to
+   * queue it again.
+   */
+  @Test
+  public void retry_JobDone_KeepsDone() throws EntityNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key jobKey = makeJob(datastore, KeyFactory.createKey(Account.keyFor(TEST_EMAIL), USER_FEED, 1));
+    TtsJob.setStatus(datastore, jobKey, TtsJob.DONE, TEST_MP3_LINK, null);
+
+    TtsJob.retry(datastore, jobKey, "Retrying after an error.");
+
+    TtsJob job = TtsJob.fromEntity(datastore.get(jobKey));
+    assertEquals(TtsJob.DONE, job.getStatus());
+    assertEquals(TEST_MP3_LINK, job.getMp3Link());
+  }
+
+  /**
+   * Asserts that a job whose audio is stored keeps the link when it is retried,
+   * so the retry only adds the episode.
+   */
+  @Test
+  public void retry_AudioStored_KeepsMp3Link() throws EntityNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key jobKey = makeJob(datastore, KeyFactory.createKey(Account.keyFor(TEST_EMAIL), USER_FEED, 1));
+    TtsJob.setStatus(datastore, jobKey, TtsJob.APPENDING, TEST_MP3_LINK, null);
+
+    TtsJob.retry(datastore, jobKey, "Retrying after an error.");
+
+    TtsJob job = TtsJob.fromEntity(datastore.get(jobKey));
+    assertEquals(TtsJob.APPENDING, job.getStatus());
+    assertEquals(TEST_MP3_LINK, job.getMp3Link());
+  }
+
+  /**
+   * Asserts that doPost() fails the job without a retry when its feed was
+   * deleted.
+   */
+  @Test
+  public void doPost_FeedDeleted_FailsJob() throws IOException, EntityNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key jobKey = makeJob(datastore, KeyFactory.createKey(Account.keyFor(TEST_EMAIL), USER_FEED, 1));
+    TtsJob.setStatus(datastore, jobKey, TtsJob.APPENDING, TEST_MP3_LINK, null);
+    when(request.getHeader(QUEUE_NAME_HEADER)).thenReturn("default");
+    when(request.getParameter(TtsTaskServlet.JOB_ID)).thenReturn(KeyFactory.keyToString(jobKey));
+
+    servlet.doPost(request, response);
+
+    verify(response, never()).sendError(anyInt(), anyString());
+    assertEquals(TtsJob.FAILED, TtsJob.fromEntity(datastore.get(jobKey)).getStatus());
+  }
+
+  private static Key makeFeed(DatastoreService datastore) throws IOException {
+    Entity feedEntity = new Entity(FeedStore.allocateFeedKey(datastore, Account.keyFor(TEST_EMAIL)));
+    feedEntity.setProperty(EMAIL, TEST_EMAIL);
+    feedEntity.setProperty(TITLE, TEST_TITLE);
+    feedEntity.setProperty(TIMESTAMP, TEST_TIMESTAMP);
+    FeedStore.createFeed(datastore, feedEntity,
+        new RSS(TEST_NAME, TEST_EMAIL, TEST_TITLE, TEST_DESCRIPTION, TEST_CATEGORY, TEST_LANGUAGE));
+    return feedEntity.getKey();
+  }
+
+  private static Key makeJob(DatastoreService datastore, Key feedKey) {
+    return datastore.put(TtsJob.newEntity(TEST_EMAIL, feedKey, TEST_TITLE, TEST_DESCRIPTION, TEST_LANGUAGE,
+        "Some text to read."));
+  }
+
+  private static int countEpisodes(DatastoreService datastore, Key feedKey) {
+    return datastore.prepare(new Query(Item.EPISODE_KEY).setAncestor(feedKey)).countEntities(withDefaults());
+  }
+}
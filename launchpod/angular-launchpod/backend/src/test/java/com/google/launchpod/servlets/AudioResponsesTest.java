@@ -0,0 +1,153 @@
+package com.google.launchpod.servlets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.cloud.storage.Blob;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Runs unit tests for the byte ranges of episode audio sent by AudioResponses.
+ */
+@RunWith(JUnit4.class)
+public class AudioResponsesTest extends Mockito {
+
+  @Mock
+  HttpServletRequest request;
+
+  @Mock
+  HttpServletResponse response;
+
+  @Mock
+  Blob blob;
+
+  private static final long LENGTH = 1000;
+  private static final String CONTENT_TYPE = "audio/mpeg";
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  /**
+   * Asserts that parseRanges() asks for the whole audio without a Range header
+   * in bytes.
+   */
+  @Test
+  public void parseRanges_NoByteRanges_ReturnsNull() {
+    assertNull(AudioResponses.parseRanges(null, LENGTH));
+    assertNull(AudioResponses.parseRanges("items=0-99", LENGTH));
+  }
+
+  /**
+   * Asserts that parseRanges() reads a range with a first and last byte.
+   */
+  @Test
+  public void parseRanges_ClosedRange_ReturnsRange() {
+    assertRanges(AudioResponses.parseRanges("bytes=0-99", LENGTH), new long[] {0, 99});
+  }
+
+  /**
+   * Asserts that parseRanges() ends ranges without a last byte, or past the end
+   * of the audio, at the last byte of the audio.
+   */
+  @Test
+  public void parseRanges_OpenEndedRange_EndsAtLastByte() {
+    assertRanges(AudioResponses.parseRanges("bytes=900-", LENGTH), new long[] {900, 999});
+    assertRanges(AudioResponses.parseRanges("bytes=500-5000", LENGTH), new long[] {500, 999});
+  }
+
+  /**
+   * Asserts that parseRanges() reads a suffix range as the last bytes of the
+   * audio, and all of it when the suffix is longer.
+   */
+  @Test
+  public void parseRanges_SuffixRange_ReturnsLastBytes() {
+    assertRanges(AudioResponses.parseRanges("bytes=-100", LENGTH), new long[] {900, 999});
+    assertRanges(AudioResponses.parseRanges("bytes=-5000", LENGTH), new long[] {0, 999});
+  }
+
+  /**
+   * Asserts that parseRanges() sorts the ranges and merges overlapping and
+   * adjacent ones.
+   */
+  @Test
+  public void parseRanges_OverlappingRanges_MergesThem() {
+    List<long[]> ranges = AudioResponses.parseRanges("bytes=500-599, 0-99,50-149,150-199", LENGTH);
+
+    assertRanges(ranges, new long[] {0, 199}, new long[] {500, 599});
+  }
+
+  /**
+   * Asserts that parseRanges() asks for the whole audio instead of more than 16
+   * ranges.
+   */
+  @Test
+  public void parseRanges_MoreThan16Ranges_ReturnsNull() {
+    StringBuilder header = new StringBuilder("bytes=0-0");
+    for (int i = 1; i <= 16; i++) {
+      header.append(",").append(i * 10).append("-").append(i * 10);
+    }
+
+    assertNull(AudioResponses.parseRanges(header.toString(), LENGTH));
+  }
+
+  /**
+   * Asserts that parseRanges() ignores a Range header it can't read.
+   */
+  @Test
+  public void parseRanges_InvalidRange_ReturnsNull() {
+    assertNull(AudioResponses.parseRanges("bytes=abc-", LENGTH));
+    assertNull(AudioResponses.parseRanges("bytes=50-10", LENGTH));
+    assertNull(AudioResponses.parseRanges("bytes=100", LENGTH));
+  }
+
+  /**
+   * Asserts that parseRanges() returns no ranges when none of them is in the
+   * audio.
+   */
+  @Test
+  public void parseRanges_AllUnsatisfiable_ReturnsEmpty() {
+    assertTrue(AudioResponses.parseRanges("bytes=1000-,2000-2100", LENGTH).isEmpty());
+    assertTrue(AudioResponses.parseRanges("bytes=-0", LENGTH).isEmpty());
+  }
+
+  /**
+   * Asserts that send() answers a Range header with no range in the audio with
+   * 416 and the length of the audio.
+   */
+  @Test
+  public void send_AllRangesUnsatisfiable_ReturnsRangeNotSatisfiable() throws IOException {
+    when(blob.getSize()).thenReturn(LENGTH);
+    when(blob.getGeneration()).thenReturn(1L);
+    when(request.getHeader("Range")).thenReturn("bytes=1000-,2000-2100");
+
+    AudioResponses.send(request, response, blob, CONTENT_TYPE);
+
+    verify(response).setHeader("Content-Range", "bytes */" + LENGTH);
+    verify(response).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    verify(blob, never()).reader(any());
+  }
+
+  private static void assertRanges(List<long[]> ranges, long[]... expected) {
+    assertEquals(expected.length, ranges.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertArrayEquals(expected[i], ranges.get(i));
+    }
+  }
+}
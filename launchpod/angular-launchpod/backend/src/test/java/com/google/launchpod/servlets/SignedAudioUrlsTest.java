@@ -0,0 +1,134 @@
+package com.google.launchpod.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.SignUrlOption;
+
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Runs unit tests for the signed audio URLs cached by SignedAudioUrls.
+ */
+@RunWith(JUnit4.class)
+public class SignedAudioUrlsTest extends Mockito {
+
+  @Mock
+  Storage storage;
+
+  private static final String BUCKET = "launchpod-mp3-files";
+  private static final String NAME = "tts-abc";
+  private static final String SIGNED_URL = "https://storage.googleapis.com/launchpod-mp3-files/tts-abc?X-Goog-Signature=1";
+  private static final long TEST_TIMESTAMP = 1593000000000L;
+  private static final int MAX_ENTRIES = 10000;
+
+  @Before
+  public void setUp() throws MalformedURLException {
+    MockitoAnnotations.initMocks(this);
+    DateTimeUtils.setCurrentMillisFixed(TEST_TIMESTAMP);
+    when(storage.signUrl(any(BlobInfo.class), anyLong(), any(TimeUnit.class), any(SignUrlOption.class)))
+        .thenReturn(new URL(SIGNED_URL));
+  }
+
+  @After
+  public void tearDown() {
+    SignedAudioUrls.clear();
+    DateTimeUtils.setCurrentMillisSystem();
+  }
+
+  /**
+   * Asserts that sign() caches the URL, which is handed out until 5 minutes
+   * before it expires after 15.
+   */
+  @Test
+  public void sign_CachesUrlUntilNearExpiry() {
+    SignedAudioUrls.SignedUrl signedUrl = SignedAudioUrls.sign(storage, blob(NAME));
+
+    assertEquals(SIGNED_URL, signedUrl.getUrl());
+    assertEquals(TimeUnit.MINUTES.toSeconds(10), signedUrl.getFreshSeconds());
+
+    DateTimeUtils.setCurrentMillisFixed(TEST_TIMESTAMP + TimeUnit.MINUTES.toMillis(10) - 1);
+    assertEquals(signedUrl, SignedAudioUrls.getCached(BUCKET, NAME));
+
+    DateTimeUtils.setCurrentMillisFixed(TEST_TIMESTAMP + TimeUnit.MINUTES.toMillis(10));
+    assertNull(SignedAudioUrls.getCached(BUCKET, NAME));
+    assertEquals(0, signedUrl.getFreshSeconds());
+  }
+
+  /**
+   * Asserts that getCached() has no URL for audio that wasn't signed.
+   */
+  @Test
+  public void getCached_NotSigned_ReturnsNull() {
+    assertNull(SignedAudioUrls.getCached(BUCKET, NAME));
+  }
+
+  /**
+   * Asserts that sign() returns no URL, and caches none, when the credentials
+   * of the app can't sign, so the audio is streamed instead.
+   */
+  @Test
+  public void sign_SigningFails_ReturnsNull() {
+    when(storage.signUrl(any(BlobInfo.class), anyLong(), any(TimeUnit.class), any(SignUrlOption.class)))
+        .thenThrow(new IllegalStateException("Signing key was not provided"));
+
+    assertNull(SignedAudioUrls.sign(storage, blob(NAME)));
+    assertNull(SignedAudioUrls.getCached(BUCKET, NAME));
+  }
+
+  /**
+   * Asserts that sign() drops only the expired URLs once the cache is full.
+   */
+  @Test
+  public void sign_CacheFull_DropsExpiredUrls() {
+    for (int i = 0; i < MAX_ENTRIES - 1; i++) {
+      SignedAudioUrls.sign(storage, blob("old-" + i));
+    }
+    DateTimeUtils.setCurrentMillisFixed(TEST_TIMESTAMP + TimeUnit.MINUTES.toMillis(11));
+    SignedAudioUrls.sign(storage, blob("fresh"));
+
+    SignedAudioUrls.sign(storage, blob(NAME));
+
+    assertNotNull(SignedAudioUrls.getCached(BUCKET, "fresh"));
+    assertNotNull(SignedAudioUrls.getCached(BUCKET, NAME));
+  }
+
+  /**
+   * Asserts that sign() drops every URL when the cache is full of URLs that
+   * haven't expired.
+   */
+  @Test
+  public void sign_CacheFullOfFreshUrls_DropsAll() {
+    for (int i = 0; i < MAX_ENTRIES; i++) {
+      SignedAudioUrls.sign(storage, blob("fresh-" + i));
+    }
+
+    SignedAudioUrls.sign(storage, blob(NAME));
+
+    assertNull(SignedAudioUrls.getCached(BUCKET, "fresh-0"));
+    assertNotNull(SignedAudioUrls.getCached(BUCKET, NAME));
+  }
+
+  private Blob blob(String name) {
+    Blob blob = mock(Blob.class);
+    when(blob.getBucket()).thenReturn(BUCKET);
+    when(blob.getName()).thenReturn(name);
+    return blob;
+  }
+}
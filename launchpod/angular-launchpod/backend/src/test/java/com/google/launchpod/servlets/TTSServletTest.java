@@ -0,0 +1,76 @@
+package com.google.launchpod.servlets;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs unit tests for how the TTSServlet joins the MP3 audio of chunks.
+ */
+@RunWith(JUnit4.class)
+public class TTSServletTest {
+
+  private static final int ID3_HEADER_SIZE = 10;
+  private static final int ID3_FOOTER_FLAG = 0x10;
+
+  /**
+   * Asserts that id3TagSize() finds no tag in audio without one.
+   */
+  @Test
+  public void id3TagSize_NoTag_ReturnsZero() {
+    assertEquals(0, TTSServlet.id3TagSize(audio(new byte[] {(byte) 0xff, (byte) 0xfb, 0, 0}, 300)));
+  }
+
+  /**
+   * Asserts that id3TagSize() finds no tag in audio shorter than a tag header.
+   */
+  @Test
+  public void id3TagSize_ShorterThanHeader_ReturnsZero() {
+    assertEquals(0, TTSServlet.id3TagSize(ByteString.copyFromUtf8("ID3")));
+  }
+
+  /**
+   * Asserts that id3TagSize() reads the 7 bits per byte size of a tag and adds
+   * its header.
+   */
+  @Test
+  public void id3TagSize_Tag_ReturnsSizeWithHeader() {
+    ByteString audio = audio(id3Header(0, 1, 0x7f), 300);
+
+    assertEquals((1 << 7 | 0x7f) + ID3_HEADER_SIZE, TTSServlet.id3TagSize(audio));
+  }
+
+  /**
+   * Asserts that id3TagSize() adds the footer of a tag that has one.
+   */
+  @Test
+  public void id3TagSize_TagWithFooter_ReturnsSizeWithHeaderAndFooter() {
+    ByteString audio = audio(id3Header(ID3_FOOTER_FLAG, 1, 0x7f), 300);
+
+    assertEquals((1 << 7 | 0x7f) + 2 * ID3_HEADER_SIZE, TTSServlet.id3TagSize(audio));
+  }
+
+  /**
+   * Asserts that id3TagSize() never goes past the end of the audio.
+   */
+  @Test
+  public void id3TagSize_TagLongerThanAudio_ReturnsAudioSize() {
+    ByteString audio = audio(id3Header(0, 0x7f, 0x7f), 50);
+
+    assertEquals(50, TTSServlet.id3TagSize(audio));
+  }
+
+  private static byte[] id3Header(int flags, int sizeHigh, int sizeLow) {
+    return new byte[] {'I', 'D', '3', 4, 0, (byte) flags, 0, 0, (byte) sizeHigh, (byte) sizeLow};
+  }
+
+  private static ByteString audio(byte[] start, int size) {
+    byte[] audio = new byte[size];
+    System.arraycopy(start, 0, audio, 0, start.length);
+    return ByteString.copyFrom(audio);
+  }
+}
@@ -31,7 +31,6 @@ export class AppComponent implements OnInit {
       .subscribe((user) => {
         if (user.isLoggedIn) {
           document.getElementById("login-container").innerHTML = user.message;
-          this.formHandlerService.sendMyFeeds(user.feeds);
         } else {
           this.loginLink = user.message;
           this.formHandlerService.sendLoginLink(user.message);
@@ -132,7 +132,7 @@ export class CreateFormComponent implements OnInit {
 
     this.formHandlerService.postFormData(formData)
     .subscribe((response) => {
-      this.formHandlerService.sendMyFeeds(response);
+      this.formHandlerService.applyFeedDelta(response);
       setInterval(() => {
         this.formHandlerService.updateHasNewFeed();
       }, 1000); 
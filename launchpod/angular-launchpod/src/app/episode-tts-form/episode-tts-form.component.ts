@@ -2,6 +2,10 @@ import { Component, OnInit } from '@angular/core';
 import { FormHandlerService } from '../form-handler.service';
 import { HttpParams } from '@angular/common/http';
 import { Router } from '@angular/router';
+import { timer } from 'rxjs';
+import { switchMap, takeWhile } from 'rxjs/operators';
+
+const JOB_POLL_INTERVAL_MS = 2000;
 
 interface Language {
   value: string;
@@ -39,9 +43,25 @@ export class EpisodeTtsFormComponent implements OnInit {
       formData = formData.set('id', id);
     });
 
+    formData = formData.set('async', 'true');
+
     this.formHandlerService.postEpisodeTTSData(formData)
-      .subscribe((response) => {
-        this.formHandlerService.sendFeedValue(response);
+      .subscribe((job) => this.waitForJob(job.id));
+  }
+
+  // Poll the text-to-speech job until the episode is added or the job fails.
+  private waitForJob(id: string) {
+    this.formHandlerService.sendFeedValue("Creating episode...");
+    timer(0, JOB_POLL_INTERVAL_MS)
+      .pipe(
+        switchMap(() => this.formHandlerService.getTtsJob(id)),
+        takeWhile((job) => job.status !== 'done' && job.status !== 'failed', true))
+      .subscribe((job) => {
+        if (job.status === 'done') {
+          this.formHandlerService.sendFeedValue(job.mp3Link);
+        } else if (job.status === 'failed') {
+          this.formHandlerService.sendFeedValue(job.error);
+        }
       });
   }
 }
@@ -1,13 +1,16 @@
 import { Injectable } from '@angular/core';
-import { HttpClient } from '@angular/common/http';
+import { HttpClient, HttpParams } from '@angular/common/http';
 import { Observable, BehaviorSubject } from 'rxjs';
 
 const FEED_URL = '/rss-feed';
 const LOGIN_URL = '/login-status';
+const MY_FEEDS_URL = '/my-feeds';
 const TRANSLATION_URL = "/translate-feed";
 const TTS_URL = "/create-by-tts";
+const TTS_JOB_URL = '/tts-job';
 const LINK_URL = 'create-by-link';
 const UPLOAD_URL = 'create-by-upload';
+const MY_FEEDS_PAGE_SIZE = 20;
 
 @Injectable({
   providedIn: 'root'
@@ -23,6 +26,13 @@ export class FormHandlerService {
   private readonly myFeedsSubject = new BehaviorSubject<Array<any>>([]);
   myFeeds = this.myFeedsSubject.asObservable();
 
+  private readonly nextFeedsCursorSubject = new BehaviorSubject<string>(null);
+  nextFeedsCursor = this.nextFeedsCursorSubject.asObservable();
+
+  private myFeedsRequested = false;
+  // Version of the list the last applied change was made to, null when unknown
+  private feedsVersion: number = null;
+
   private readonly hasNewFeedSubject = new BehaviorSubject<boolean>(false);
   hasNewFeed = this.hasNewFeedSubject.asObservable();
 
@@ -46,10 +56,76 @@ export class FormHandlerService {
   }
 
   /**
-  * Update the list of "my feeds" with the feeds from post request.
-  */
-  sendMyFeeds(feeds) {
-    this.myFeedsSubject.next(feeds);
+   * Apply a change to one of the user's feeds, sent back by a post request, to
+   * the list of "my feeds". If the list changed elsewhere since the last change
+   * seen, the list is fetched again instead.
+   */
+  applyFeedDelta(delta) {
+    if (!this.myFeedsRequested) {
+      // The list will include the change once it's fetched
+      return;
+    }
+    if (this.feedsVersion !== null && delta.version > this.feedsVersion + 1) {
+      this.reloadMyFeeds();
+      return;
+    }
+    this.feedsVersion = Math.max(this.feedsVersion || 0, delta.version);
+
+    const feeds = this.myFeedsSubject.getValue();
+    if (delta.change === 'created') {
+      this.myFeedsSubject.next([delta.feed].concat(feeds.filter((feed) => feed.key !== delta.key)));
+    } else if (delta.change === 'changed') {
+      this.myFeedsSubject.next(feeds.map((feed) => feed.key === delta.key ? delta.feed : feed));
+    } else if (delta.change === 'deleted') {
+      this.myFeedsSubject.next(feeds.filter((feed) => feed.key !== delta.key));
+    }
+  }
+
+  /**
+   * Fetch the first page of the user's feeds, unless they were fetched already.
+   */
+  loadMyFeeds() {
+    if (this.myFeedsRequested) {
+      return;
+    }
+    this.myFeedsRequested = true;
+    this.getMyFeeds(MY_FEEDS_PAGE_SIZE)
+      .subscribe((page) => {
+        // Deltas past this version are changes the list doesn't include yet
+        this.feedsVersion = page.version;
+        this.myFeedsSubject.next(page.feeds);
+        this.nextFeedsCursorSubject.next(page.nextCursor || null);
+      }, () => {
+        this.myFeedsRequested = false;
+      });
+  }
+
+  /**
+   * Fetch the first page of the user's feeds again, dropping the pages fetched so far.
+   */
+  private reloadMyFeeds() {
+    this.myFeedsRequested = false;
+    this.feedsVersion = null;
+    this.nextFeedsCursorSubject.next(null);
+    this.loadMyFeeds();
+  }
+
+  /**
+   * Fetch the page of the user's feeds after the ones fetched so far.
+   */
+  loadMoreFeeds() {
+    const cursor = this.nextFeedsCursorSubject.getValue();
+    if (!cursor) {
+      return;
+    }
+    this.nextFeedsCursorSubject.next(null);
+    this.getMyFeeds(MY_FEEDS_PAGE_SIZE, cursor)
+      .subscribe((page) => {
+        this.myFeedsSubject.next(this.myFeedsSubject.getValue().concat(page.feeds));
+        this.nextFeedsCursorSubject.next(page.nextCursor || null);
+      }, () => {
+        this.nextFeedsCursorSubject.next(cursor);
+      });
   }
 
   /**
@@ -82,10 +158,11 @@ export class FormHandlerService {
   }
 
   /**
-   * Post input from episode by link creation form to back end and retrieve URL for RSS feed.
+   * Post input from episode by text-to-speech creation form to back end. With
+   * async set, the response is the job adding the episode, see getTtsJob.
   */
-  postEpisodeTTSData(formData): Observable<string> {
-    return this.http.post(TTS_URL, formData, { responseType: 'text' });
+  postEpisodeTTSData(formData): Observable<any> {
+    return this.http.post(TTS_URL, formData);
   }
 
   /**
@@ -116,6 +193,25 @@ export class FormHandlerService {
     return this.http.get(LOGIN_URL);
   }
 
+  /**
+   * Fetch a page of the user's feeds from MyFeedsServlet. Pass the nextCursor
+   * of a page to get the page after it.
+   */
+  getMyFeeds(limit: number, cursor?: string): Observable<any> {
+    let params = new HttpParams().set('limit', String(limit));
+    if (cursor) {
+      params = params.set('cursor', cursor);
+    }
+    return this.http.get(MY_FEEDS_URL, { params });
+  }
+
+  /**
+   * Fetch the status of a text-to-speech job started by postEpisodeTTSData.
+   */
+  getTtsJob(id: string): Observable<any> {
+    return this.http.get(TTS_JOB_URL, { params: new HttpParams().set('id', id) });
+  }
+
   /**
    * Get action needed to generate link to RSS feed.
    */
@@ -22,10 +22,15 @@ export class MyFeedsPageComponent implements OnInit {
 
   hasNewFeed: boolean;
   myFeeds: Feed[];
+  hasMoreFeeds: boolean;
 
   constructor(private formHandlerService: FormHandlerService, public snackBar: MatSnackBar, private router: Router) {}
 
   ngOnInit(): void {
+    this.formHandlerService.loadMyFeeds();
+    this.formHandlerService.nextFeedsCursor.subscribe((cursor) => {
+      this.hasMoreFeeds = !!cursor;
+    });
     this.formHandlerService.myFeeds.subscribe((feeds) => {
       this.myFeeds = feeds;
       this.formHandlerService.hasNewFeed.subscribe((result) => {
@@ -40,14 +45,18 @@ export class MyFeedsPageComponent implements OnInit {
     formData = formData.set('keyId', key);
 
     this.formHandlerService.deleteFeedEntity(formData)
-      .subscribe((feeds) => {
-        this.formHandlerService.sendMyFeeds(feeds);
+      .subscribe((delta) => {
+        this.formHandlerService.applyFeedDelta(delta);
         this.hasNewFeed = false;
-        this.myFeeds = feeds;
       });
     
   }
 
+  // Fetch the next page of the user's feeds.
+  public loadMoreFeeds() {
+    this.formHandlerService.loadMoreFeeds();
+  }
+
   // Send the key for the feed the user wants to edit to the backend.
   public addEpisode(key) {
     this.formHandlerService.sendCurrentFeedKey(key);
@@ -102,7 +102,7 @@ export class TranslateFormComponent implements OnInit {
 
     this.formHandlerService.postTranslationData(formData)
     .subscribe((response) => {
-      this.formHandlerService.sendMyFeeds(response);
+      this.formHandlerService.applyFeedDelta(response);
       setInterval(() => {
         this.formHandlerService.updateHasNewFeed();
       }, 1000);